@@ -2,6 +2,7 @@ package org.acme.semsim.dto;
 
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import io.quarkus.runtime.annotations.RegisterForReflection;
 
 /**
@@ -13,6 +14,10 @@ public class ApiResponse {
 	private String error;
 	private String sessionId;
 	private List<List<String>> similarityGroups;
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private List<ElementNeighbours> neighbours;
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private GroupHierarchy hierarchy;
 
 	public ApiResponse() {
 	}
@@ -78,4 +83,20 @@ public class ApiResponse {
 	public void setSimilarityGroups(List<List<String>> similarityGroups) {
 		this.similarityGroups = similarityGroups;
 	}
+
+	public List<ElementNeighbours> getNeighbours() {
+		return neighbours;
+	}
+
+	public void setNeighbours(List<ElementNeighbours> neighbours) {
+		this.neighbours = neighbours;
+	}
+
+	public GroupHierarchy getHierarchy() {
+		return hierarchy;
+	}
+
+	public void setHierarchy(GroupHierarchy hierarchy) {
+		this.hierarchy = hierarchy;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+package org.acme.semsim.dto;
+
+import java.util.List;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+
+/**
+ * The nearest texts of a text, most similar first. Elements with exactly the same text share
+ * one entry and are listed by their semids, so they are not reported as each other's neighbours.
+ */
+@RegisterForReflection
+public class ElementNeighbours {
+	private String text;
+	private List<String> semids;
+	private List<Neighbour> neighbours;
+
+	public ElementNeighbours() {
+	}
+
+	public ElementNeighbours(String text, List<String> semids, List<Neighbour> neighbours) {
+		this.text = text;
+		this.semids = semids;
+		this.neighbours = neighbours;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public void setText(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * @return The cms:semid of each element with this text
+	 */
+	public List<String> getSemids() {
+		return semids;
+	}
+
+	public void setSemids(List<String> semids) {
+		this.semids = semids;
+	}
+
+	public List<Neighbour> getNeighbours() {
+		return neighbours;
+	}
+
+	public void setNeighbours(List<Neighbour> neighbours) {
+		this.neighbours = neighbours;
+	}
+}
@@ -0,0 +1,92 @@
+package org.acme.semsim.dto;
+
+import java.util.List;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+
+/**
+ * Single-linkage clustering hierarchy of a session's texts, as the merges of a maximum spanning
+ * forest of the pairs above the floor, most similar first. Merge m joins the clusters of texts
+ * from[m] and to[m] at similarity scores[m]. Joining all merges with a score of at least a threshold
+ * gives the single-linkage clusters at that threshold, for any threshold from the floor on.
+ * A cluster with at least two occurrences, counting every semid of its texts, is a group.
+ */
+@RegisterForReflection
+public class GroupHierarchy {
+	private double floor;
+	private List<String> texts;
+	private List<List<String>> semids;
+	private int[] from;
+	private int[] to;
+	private float[] scores;
+
+	public GroupHierarchy() {
+	}
+
+	public GroupHierarchy(double floor, List<String> texts, List<List<String>> semids, int[] from, int[] to,
+			float[] scores) {
+		this.floor = floor;
+		this.texts = texts;
+		this.semids = semids;
+		this.from = from;
+		this.to = to;
+		this.scores = scores;
+	}
+
+	/**
+	 * @return The lowest threshold the hierarchy can be cut at
+	 */
+	public double getFloor() {
+		return floor;
+	}
+
+	public void setFloor(double floor) {
+		this.floor = floor;
+	}
+
+	/**
+	 * @return The distinct texts, in document order, indexed by the merges
+	 */
+	public List<String> getTexts() {
+		return texts;
+	}
+
+	public void setTexts(List<String> texts) {
+		this.texts = texts;
+	}
+
+	/**
+	 * @return The cms:semid of each element per text
+	 */
+	public List<List<String>> getSemids() {
+		return semids;
+	}
+
+	public void setSemids(List<List<String>> semids) {
+		this.semids = semids;
+	}
+
+	public int[] getFrom() {
+		return from;
+	}
+
+	public void setFrom(int[] from) {
+		this.from = from;
+	}
+
+	public int[] getTo() {
+		return to;
+	}
+
+	public void setTo(int[] to) {
+		this.to = to;
+	}
+
+	public float[] getScores() {
+		return scores;
+	}
+
+	public void setScores(float[] scores) {
+		this.scores = scores;
+	}
+}
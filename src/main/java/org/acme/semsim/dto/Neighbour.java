@@ -0,0 +1,51 @@
+package org.acme.semsim.dto;
+
+import java.util.List;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+
+/**
+ * A neighbouring text of an element with its cosine similarity.
+ */
+@RegisterForReflection
+public class Neighbour {
+	private String text;
+	private List<String> semids;
+	private float score;
+
+	public Neighbour() {
+	}
+
+	public Neighbour(String text, List<String> semids, float score) {
+		this.text = text;
+		this.semids = semids;
+		this.score = score;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public void setText(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * @return The cms:semid of each element with this text
+	 */
+	public List<String> getSemids() {
+		return semids;
+	}
+
+	public void setSemids(List<String> semids) {
+		this.semids = semids;
+	}
+
+	public float getScore() {
+		return score;
+	}
+
+	public void setScore(float score) {
+		this.score = score;
+	}
+}
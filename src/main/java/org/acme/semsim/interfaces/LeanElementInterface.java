@@ -1,12 +1,51 @@
 package org.acme.semsim.interfaces;
 
-// TODO: Implement a lean version of the Element interface here, then create the following methods for this class:
-// - Store and get text content (including in children)
-// - Store and get all content (also other nodes than text)
-// - Store and get all element attributes
-// - Store its XPath position in its document
-// - Immutable, setters not needed.
-// - an uuid for each instance.
+/**
+ * The few parts of an org.w3c.dom.Element needed to extract and group its text, so the text of
+ * selected elements can be handled the same way whether it was read into a DOM or streamed.
+ */
 public interface LeanElementInterface {
-    // Add only the necessary methods here from Element interface.
+
+	/**
+	 * @return The cms:semid of the element, numbered in document order among the selected elements
+	 */
+	String getSemid();
+
+	/**
+	 * @return Qualified name of the element, as {@link org.w3c.dom.Element#getTagName()}
+	 */
+	String getTagName();
+
+	/**
+	 * @return Text of the element including its descendants, as {@link org.w3c.dom.Node#getTextContent()}
+	 */
+	String getTextContent();
+
+	/**
+	 * @return Position of the element in its document as an XPath of child element positions,
+	 *         e.g. /*[1]/*[3]/*[2] for the second child element of the third child of the root
+	 */
+	String getXPath();
+
+	int getAttributeCount();
+
+	/**
+	 * @return Qualified name of the attribute at an index
+	 */
+	String getAttributeName(int index);
+
+	String getAttributeValue(int index);
+
+	/**
+	 * @return Value of the attribute with a qualified name, or the empty string like
+	 *         {@link org.w3c.dom.Element#getAttribute(String)} if the element has none
+	 */
+	default String getAttribute(String name) {
+		for (int i = 0; i < getAttributeCount(); i++) {
+			if (getAttributeName(i).equals(name)) {
+				return getAttributeValue(i);
+			}
+		}
+		return "";
+	}
 }
@@ -1,13 +1,71 @@
 package org.acme.semsim.interfaces;
 
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
 /**
- * A wrapper for a LeanElement, so the Element interface can be used without bloating the class.
+ * A wrapper for a DOM Element, so elements of an annotated working copy can be used where a
+ * LeanElement is expected. The semid is read from the cms:semid attribute.
  */
 public class LeanElementInterfaceWrapper implements LeanElementInterface {
 
-// Uncomment constructor and continue the implementation.
-//    public LeanElementWrapper(Element element) {
-//        this.element = element;
-//    }
+	private final Element element;
+
+	public LeanElementInterfaceWrapper(Element element) {
+		this.element = element;
+	}
+
+	public Element getElement() {
+		return element;
+	}
+
+	@Override
+	public String getSemid() {
+		return element.getAttribute("cms:semid");
+	}
+
+	@Override
+	public String getTagName() {
+		return element.getTagName();
+	}
+
+	@Override
+	public String getTextContent() {
+		return element.getTextContent();
+	}
+
+	@Override
+	public String getXPath() {
+		StringBuilder path = new StringBuilder();
+		for (Node node = element; node instanceof Element; node = node.getParentNode()) {
+			int position = 1;
+			for (Node sibling = node.getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling()) {
+				if (sibling instanceof Element) {
+					position++;
+				}
+			}
+			path.insert(0, "/*[" + position + "]");
+		}
+		return path.toString();
+	}
+
+	@Override
+	public int getAttributeCount() {
+		return element.getAttributes().getLength();
+	}
+
+	@Override
+	public String getAttributeName(int index) {
+		return element.getAttributes().item(index).getNodeName();
+	}
+
+	@Override
+	public String getAttributeValue(int index) {
+		return element.getAttributes().item(index).getNodeValue();
+	}
 
+	@Override
+	public String getAttribute(String name) {
+		return element.getAttribute(name);
+	}
 }
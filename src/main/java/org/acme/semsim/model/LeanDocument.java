@@ -0,0 +1,47 @@
+package org.acme.semsim.model;
+
+/**
+ * Shared storage of the {@link LeanElement}s extracted from one document. The text of all selected
+ * elements is kept once in a single string, which the JVM stores with one byte per character for
+ * Latin-1 text, and element paths and attributes are kept in flat arrays, so an element costs one
+ * small record instead of a DOM subtree.
+ */
+public final class LeanDocument {
+	private final String text;
+	private final int[] positions;
+	private final String[] attributes;
+
+	/**
+	 * @param text       Text of all selected elements in document order, nested elements share theirs
+	 * @param positions  Child element positions of the elements' paths, one run per element
+	 * @param attributes Attribute names and values of the elements, alternating
+	 */
+	public LeanDocument(String text, int[] positions, String[] attributes) {
+		this.text = text;
+		this.positions = positions;
+		this.attributes = attributes;
+	}
+
+	String text(int start, int end) {
+		return text.substring(start, end);
+	}
+
+	int position(int index) {
+		return positions[index];
+	}
+
+	String attributeName(int index) {
+		return attributes[2 * index];
+	}
+
+	String attributeValue(int index) {
+		return attributes[2 * index + 1];
+	}
+
+	/**
+	 * @return Characters of text held for all elements
+	 */
+	public int getTextLength() {
+		return text.length();
+	}
+}
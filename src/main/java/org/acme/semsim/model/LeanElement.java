@@ -2,13 +2,61 @@ package org.acme.semsim.model;
 
 import org.acme.semsim.interfaces.LeanElementInterface;
 
-// TODO: Implement a lean version of the Element interface here, then create the following methods for this class:
-// - Store and get text content (including in children)
-// - Store and get all content (also other nodes than text)
-// - Store and get all element attributes
-// - Store its XPath position in its document
-// - Immutable, setters not needed.
-// - an uuid for each instance.
-public class LeanElement implements LeanElementInterface {
+/**
+ * Immutable, compact stand-in for a selected element of a document, read without building a DOM.
+ * Text, path and attributes are ranges of the document's shared {@link LeanDocument} storage, and
+ * the semid identifies the element, so an element holds no objects of its own besides its name,
+ * which the parser shares between all elements of the same name.
+ *
+ * @param document       Shared storage of the document's selected elements
+ * @param semid          The cms:semid, 1 for the first selected element in document order
+ * @param name           Qualified element name
+ * @param textStart      Start of the element's text in the shared text
+ * @param textEnd        End of the element's text, exclusive
+ * @param pathStart      Start of the element's child element positions, from the root down
+ * @param pathEnd        End of the element's child element positions, exclusive
+ * @param attributeStart Index of the element's first attribute
+ * @param attributeEnd   Index after the element's last attribute
+ */
+public record LeanElement(LeanDocument document, int semid, String name, int textStart, int textEnd,
+		int pathStart, int pathEnd, int attributeStart, int attributeEnd) implements LeanElementInterface {
 
+	@Override
+	public String getSemid() {
+		return String.valueOf(semid);
+	}
+
+	@Override
+	public String getTagName() {
+		return name;
+	}
+
+	@Override
+	public String getTextContent() {
+		return document.text(textStart, textEnd);
+	}
+
+	@Override
+	public String getXPath() {
+		StringBuilder path = new StringBuilder();
+		for (int i = pathStart; i < pathEnd; i++) {
+			path.append("/*[").append(document.position(i)).append(']');
+		}
+		return path.toString();
+	}
+
+	@Override
+	public int getAttributeCount() {
+		return attributeEnd - attributeStart;
+	}
+
+	@Override
+	public String getAttributeName(int index) {
+		return document.attributeName(attributeStart + index);
+	}
+
+	@Override
+	public String getAttributeValue(int index) {
+		return document.attributeValue(attributeStart + index);
+	}
 }
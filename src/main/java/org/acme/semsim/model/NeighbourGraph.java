@@ -0,0 +1,62 @@
+package org.acme.semsim.model;
+
+/**
+ * All pairs of a session's sentences with a cosine similarity of at least a floor threshold, in
+ * compressed sparse row form. Row i lists its later neighbours j &gt; i in ascending order, in
+ * columns[rowOffsets[i]] to columns[rowOffsets[i + 1]], with their similarities at the same
+ * positions of scores. Each pair is stored once, which is all the greedy grouping needs, so the
+ * session can be regrouped at any threshold at or above the floor without recomputing similarities.
+ */
+public final class NeighbourGraph {
+	private final double floor;
+	private final int[] rowOffsets;
+	private final int[] columns;
+	private final float[] scores;
+
+	public NeighbourGraph(double floor, int[] rowOffsets, int[] columns, float[] scores) {
+		if (columns.length != scores.length || rowOffsets[rowOffsets.length - 1] != columns.length) {
+			throw new IllegalArgumentException("Row offsets, columns and scores do not match");
+		}
+		this.floor = floor;
+		this.rowOffsets = rowOffsets;
+		this.columns = columns;
+		this.scores = scores;
+	}
+
+	/**
+	 * @return The lowest threshold the graph can group at
+	 */
+	public double getFloor() {
+		return floor;
+	}
+
+	public int getRowCount() {
+		return rowOffsets.length - 1;
+	}
+
+	public int getEdgeCount() {
+		return columns.length;
+	}
+
+	/**
+	 * @return Position of the first neighbour of a row
+	 */
+	public int rowStart(int row) {
+		return rowOffsets[row];
+	}
+
+	/**
+	 * @return Position after the last neighbour of a row
+	 */
+	public int rowEnd(int row) {
+		return rowOffsets[row + 1];
+	}
+
+	public int column(int position) {
+		return columns[position];
+	}
+
+	public float score(int position) {
+		return scores[position];
+	}
+}
@@ -2,11 +2,15 @@ package org.acme.semsim.model;
 
 import org.w3c.dom.Node;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 
 /**
  * Represents a sentence with its text content and vector embedding.
+ * A sentence stands for every element of the document with exactly this text, and keeps the
+ * cms:semid of each of those elements, so duplicates are embedded and compared only once.
  */
 // TODO: Change name to ElementDuplicates, and ensure the following functionality:
 // - Store Text objects having same text content
@@ -18,16 +22,23 @@ import java.util.Objects;
 // - an uuid for each ElementDuplicates instance.
 public class Sentence {
 	private String text;
-	private double[] vector;
+	private float[] vector;
+	private final List<String> semids = new ArrayList<>();
 
 	public Sentence() {
 	}
 
-	public Sentence(String text, double[] vector) {
+	public Sentence(String text, float[] vector) {
 		this.text = text;
 		this.vector = vector;
 	}
 
+	public Sentence(String text, float[] vector, List<String> semids) {
+		this.text = text;
+		this.vector = vector;
+		this.semids.addAll(semids);
+	}
+
 	public String getText() {
 		return text;
 	}
@@ -36,14 +47,37 @@ public class Sentence {
 		this.text = text;
 	}
 
-	public double[] getVector() {
+	public float[] getVector() {
 		return vector;
 	}
 
-	public void setVector(double[] vector) {
+	public void setVector(float[] vector) {
 		this.vector = vector;
 	}
 
+	/**
+	 * @return The cms:semid of each element with this text, in document order
+	 */
+	public List<String> getSemids() {
+		return semids;
+	}
+
+	/**
+	 * Record another element with this text.
+	 *
+	 * @param semid The element's cms:semid
+	 */
+	public void addOccurrence(String semid) {
+		semids.add(semid);
+	}
+
+	/**
+	 * @return Number of elements with this text, 1 when no positions were recorded
+	 */
+	public int getOccurrenceCount() {
+		return Math.max(1, semids.size());
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o)
@@ -66,6 +100,7 @@ public class Sentence {
 		return "Sentence{" +
 				"text='" + text + '\'' +
 				", vector=" + (vector != null ? "length=" + vector.length : "null") +
+				", occurrences=" + getOccurrenceCount() +
 				'}';
 	}
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package org.acme.semsim.model;
 
+import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
@@ -21,6 +23,10 @@ public class SessionData {
 	private final List<List<String>> similaritySentenceGroups;
 	private final List<Sentence> allSentences;
 	private ProcessingStatus processingStatus;
+	private NeighbourGraph neighbourGraph;
+	private Path sourceFile;
+	private Charset sourceCharset;
+	private String elementNames;
 
 	public enum ProcessingStatus {
 		PROCESSING,
@@ -61,6 +67,44 @@ public class SessionData {
 		allSentences.add(sentence);
 	}
 
+	/**
+	 * @return Pairs above a floor threshold for regrouping, or null if none were kept
+	 */
+	public NeighbourGraph getNeighbourGraph() {
+		return neighbourGraph;
+	}
+
+	public void setNeighbourGraph(NeighbourGraph neighbourGraph) {
+		this.neighbourGraph = neighbourGraph;
+	}
+
+	/**
+	 * @return Copy of the uploaded document as received, for exporting it annotated, or null if none was kept
+	 */
+	public Path getSourceFile() {
+		return sourceFile;
+	}
+
+	/**
+	 * @return Charset declared for the upload outside the document, or null if the document declares its own
+	 */
+	public Charset getSourceCharset() {
+		return sourceCharset;
+	}
+
+	/**
+	 * @return The elements parameter the document was processed with
+	 */
+	public String getElementNames() {
+		return elementNames;
+	}
+
+	public void setSource(Path sourceFile, Charset sourceCharset, String elementNames) {
+		this.sourceFile = sourceFile;
+		this.sourceCharset = sourceCharset;
+		this.elementNames = elementNames;
+	}
+
 	public boolean isExpired(long timeoutMinutes) {
 		Instant expiryTime = timestamp.plusSeconds(timeoutMinutes * 60);
 		return Instant.now().isAfter(expiryTime);
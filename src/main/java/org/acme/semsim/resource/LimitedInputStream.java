@@ -0,0 +1,67 @@
+package org.acme.semsim.resource;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Request body stream that fails once more than a maximum number of bytes has been read, so uploads
+ * without a Content-Length header are rejected as soon as they pass the limit instead of after
+ * being read completely.
+ */
+class LimitedInputStream extends FilterInputStream {
+
+	private final long maxBytes;
+	private long count;
+	private boolean limitExceeded;
+
+	LimitedInputStream(InputStream in, long maxBytes) {
+		super(in);
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return Whether reading was stopped because the stream is longer than the limit
+	 */
+	boolean isLimitExceeded() {
+		return limitExceeded;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0) {
+			count(1);
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if (n > 0) {
+			count(n);
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		count(skipped);
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	private void count(long n) throws IOException {
+		count += n;
+		if (count > maxBytes) {
+			limitExceeded = true;
+			throw new IOException("Request body is larger than " + maxBytes + " bytes");
+		}
+	}
+}
@@ -2,15 +2,31 @@ package org.acme.semsim.resource;
 
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.Cookie;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.NewCookie;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import org.acme.semsim.dto.ApiResponse;
+import org.acme.semsim.dto.ElementNeighbours;
+import org.acme.semsim.dto.GroupHierarchy;
+import org.acme.semsim.model.NeighbourGraph;
+import org.acme.semsim.model.SessionData;
+import org.acme.semsim.service.ElementSelector;
+import org.acme.semsim.service.GroupingService;
+import org.acme.semsim.service.NeighbourService;
 import org.acme.semsim.service.SessionService;
 import org.acme.semsim.service.SimilarityProcessingService;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.UUID;
@@ -29,24 +45,40 @@ public class SimilarityResource {
 	@Inject
 	SessionService sessionService;
 
+	@Inject
+	NeighbourService neighbourService;
+
+	@Inject
+	GroupingService groupingService;
+
+	/** Largest accepted upload, larger bodies are rejected with 413 before or while they are read */
+	@ConfigProperty(name = "semsim.upload.maxBytes", defaultValue = "67108864")
+	long maxUploadBytes;
+
 	/**
 	 * Submit an XML document for processing with specific element names.
+	 * The body is parsed while it is received, it is never held in memory as a whole.
 	 *
-	 * @param xmlContent The XML content to process
+	 * @param xmlContent The XML content to process, decoded with the charset of the Content-Type
+	 *                   header if it has one, otherwise as declared by the document
 	 * @param elements      A space-separated string of element names to extract text
-	 *                   from (e.g., "p li div")
+	 *                   from (e.g., "p li div"), or of DITA classes matching specialisations
+	 *                   too (e.g., "topic/p topic/li"); classes are only matched in class
+	 *                   attributes written in the document, not in defaults of its DTD
 	 *                   (default: "p")
 	 * @param threshold  Optional similarity threshold value between 0.0 and 1.0
 	 *                   (default: defined in configuration)
+	 * @param headers    Request headers with the body's length and media type
 	 * @return Response with a session cookie
 	 */
 	@POST
 	@Consumes(MediaType.APPLICATION_XML)
 	@Produces(MediaType.APPLICATION_JSON)
 	public Response apiSimilarity(
-			String xmlContent, 
+			InputStream xmlContent, 
 			@QueryParam("elements") @DefaultValue("p") String elements,
-			@QueryParam("threshold") Double threshold) {
+			@QueryParam("threshold") Double threshold,
+			@Context HttpHeaders headers) {
 		// We assume parameter elements is encoded, so we decode it
 		try {
 			elements = java.net.URLDecoder.decode(elements, StandardCharsets.UTF_8);
@@ -58,10 +90,10 @@ public class SimilarityResource {
 					.build();
 		}
 		// We validate parameter elements
-		if (!elements.matches("^[a-zA-Z_][a-zA-Z0-9_-]*(\\s+[a-zA-Z_][a-zA-Z0-9_-]*)*$")) {
+		if (!ElementSelector.isValid(elements)) {
 			LOG.error("Validation error for elements parameter: " + elements);
 			return Response.status(Response.Status.BAD_REQUEST)
-					.entity(new ApiResponse("Elements parameter validation failed.", "Elements parameter should be a space separated string of valid XML elements." , null))
+					.entity(new ApiResponse("Elements parameter validation failed.", "Elements parameter should be a space separated string of valid XML element names or DITA classes like topic/p." , null))
 					.build();
 		}
 		
@@ -72,6 +104,25 @@ public class SimilarityResource {
 					.entity(new ApiResponse("Threshold parameter validation failed.", "Threshold must be between 0.0 and 1.0." , null))
 					.build();
 		}
+
+		// Reject bodies announced as too large before reading them
+		if (headers.getLength() > maxUploadBytes) {
+			LOG.warn("Rejected request body of " + headers.getLength() + " bytes");
+			return payloadTooLarge();
+		}
+
+		// A charset in the Content-Type header overrides the one declared by the document
+		Charset charset;
+		try {
+			MediaType mediaType = headers.getMediaType();
+			String charsetName = mediaType != null ? mediaType.getParameters().get(MediaType.CHARSET_PARAMETER) : null;
+			charset = charsetName != null ? Charset.forName(charsetName) : null;
+		} catch (IllegalArgumentException e) {
+			LOG.error("Unsupported charset in Content-Type: " + headers.getMediaType());
+			return Response.status(Response.Status.BAD_REQUEST)
+					.entity(new ApiResponse("Error processing request.", "Unsupported charset: " + e.getMessage(), null))
+					.build();
+		}
 		
 		// We check if xmlContent is null or empty
 		if (xmlContent == null) {
@@ -80,24 +131,69 @@ public class SimilarityResource {
 					.entity(new ApiResponse("Error processing request.", "xmlContent was not provided in request body.", null))
 					.build();
 		}
-		if (xmlContent.trim().isEmpty()) {
-			LOG.warn("xmlContent in request body was the empty string");
+		LimitedInputStream limitedContent = new LimitedInputStream(xmlContent, maxUploadBytes);
+		BufferedInputStream bufferedContent = new BufferedInputStream(limitedContent);
+		try {
+			if (isBlank(bufferedContent)) {
+				LOG.warn("xmlContent in request body was the empty string");
+				return Response.status(Response.Status.BAD_REQUEST)
+						// TODO: Add a more specific error message, what is invalid about the XML?
+						.entity(new ApiResponse("Error processing request.", "XML content is empty or invalid", null))
+						.build();
+			}
+		} catch (IOException e) {
+			if (limitedContent.isLimitExceeded()) {
+				return payloadTooLarge();
+			}
+			LOG.error("Error reading request body", e);
 			return Response.status(Response.Status.BAD_REQUEST)
-					// TODO: Add a more specific error message, what is invalid about the XML?
-					.entity(new ApiResponse("Error processing request.", "XML content is empty or invalid", null))
+					.entity(new ApiResponse("Error processing request.", "Request body could not be read: " + e.getMessage(), null))
 					.build();
 		}
-		return createSimilarityGroups(xmlContent, elements, threshold);
+		return createSimilarityGroups(bufferedContent, limitedContent, charset, elements, threshold);
     }
 
+	/**
+	 * Whether a stream holds nothing but whitespace, judged by its first buffered bytes.
+	 * The stream is reset to its start afterwards.
+	 */
+	private static boolean isBlank(BufferedInputStream content) throws IOException {
+		int peek = 8192;
+		content.mark(peek);
+		try {
+			for (int i = 0; i < peek; i++) {
+				int b = content.read();
+				if (b < 0) {
+					return true;
+				}
+				if (b > ' ') {
+					return false;
+				}
+			}
+			return false;
+		} finally {
+			content.reset();
+		}
+	}
+
+	private Response payloadTooLarge() {
+		return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE)
+				.entity(new ApiResponse("Error processing request.",
+						"Request body exceeds the limit of " + maxUploadBytes + " bytes.", null))
+				.build();
+	}
+
 	/**
 	 * Internal method to process XML with optional element names.
 	 * xmlContent and elementNames are assumed to be validated beforehand.
+	 *
+	 * @param limitedContent The body stream under xmlContent, to tell an exceeded size limit from invalid XML
 	 */
-	private Response createSimilarityGroups(String xmlContent, String elementNames, Double threshold) {
+	private Response createSimilarityGroups(InputStream xmlContent, LimitedInputStream limitedContent, Charset charset,
+			String elementNames, Double threshold) {
 		try {
 			// Then start async xml processing and get a session ID
-			NewCookie sessionCookie = similarityProcessingService.startAsyncProcessing(xmlContent, elementNames, threshold);
+			NewCookie sessionCookie = similarityProcessingService.startAsyncProcessing(xmlContent, charset, elementNames, threshold);
 
 			// Return 202 Accepted with session ID in both cookie and body
 			return Response.status(Response.Status.ACCEPTED)
@@ -108,6 +204,10 @@ public class SimilarityResource {
 					.build();
 
 		} catch (Exception e) {
+			if (limitedContent.isLimitExceeded()) {
+				LOG.warn("Rejected request body larger than " + maxUploadBytes + " bytes");
+				return payloadTooLarge();
+			}
 			// Include the full stack trace and exception details in the log
 			StringBuilder errorDetails = new StringBuilder();
 			errorDetails.append("Exception in createSimilarityGroups(): ").append(e.getClass().getName()).append("\n");
@@ -127,13 +227,6 @@ public class SimilarityResource {
 		}
 	}
 
-	/**
-	 * Backward compatibility method
-	 */
-	private Response createSimilarityGroups(String xmlContent, String elementNames) {
-		return createSimilarityGroups(xmlContent, elementNames, null);
-	}
-
 	/**
 	 * Retrieve similarity results using the session ID from the session cookie.
 	 * Supports polling - returns 202 Accepted if processing is still in progress.
@@ -146,45 +239,12 @@ public class SimilarityResource {
 	@Produces(MediaType.APPLICATION_JSON)
 	public Response apiSimilarityResults(@CookieParam(SimilarityProcessingService.SESSION_COOKIE_NAME) Cookie sessionCookie) {
 		try {
-			if (sessionCookie == null) {
-				LOG.warn("/results was requested but Session cookie was null");
-				return Response.status(Response.Status.BAD_REQUEST)
-						.entity(new ApiResponse(null,"Session cookie was never sent.", null))
-						.build();
-			}
-			LOG.info("/results was requested with sessionid: " + sessionCookie.getValue());
-
-			String sessionId = sessionCookie.getValue();
-
-			if (sessionId.isEmpty()) {
-				LOG.warn("Session cookie's value was an empty string");
-				return Response.status(Response.Status.BAD_REQUEST)
-						.entity(new ApiResponse(null,"Session cookie's value was an empty string", null))
-						.build();
-			}
-
-			// Validate session ID as UUID
-			try {
-				UUID uuid = UUID.fromString(sessionId);
-				// Valid UUID format
-				// Process the session
-			} catch (IllegalArgumentException e) {
-				LOG.warn("Session ID was not in UUID format: " + sessionId);
-				return Response.status(Response.Status.BAD_REQUEST)
-						.entity(new ApiResponse(null,"Invalid session ID, not UUID format.", sessionId))
-						.build();
-			}
-
-			// Get session
-			org.acme.semsim.model.SessionData sessionData = sessionService.getSession(sessionId);
-
-			// If no session found, return 404 Not Found
-			if (sessionData == null) {
-				LOG.info("No session found for ID: " + sessionId);
-				return Response.status(Response.Status.NOT_FOUND)
-						.entity(new ApiResponse(null,"No session found for ID: " + sessionId, null))
-						.build();
+			SessionLookup lookup = lookupSession(sessionCookie, "/results");
+			if (lookup.error() != null) {
+				return lookup.error();
 			}
+			String sessionId = lookup.sessionId();
+			SessionData sessionData = lookup.session();
 
 			// Check processing status
 			org.acme.semsim.model.SessionData.ProcessingStatus status = sessionData.getProcessingStatus();
@@ -264,4 +324,269 @@ public class SimilarityResource {
 					.build();
 		}
 	}
+
+	/**
+	 * Retrieve the k most similar texts of one element, or of every element, of a processed session.
+	 * Elements with exactly the same text share one entry listing all their semids.
+	 *
+	 * @param sessionCookie Session cookie containing the session ID
+	 * @param semid         The cms:semid of the element, or absent for all elements
+	 * @param k             Number of neighbours per element (default: 5)
+	 * @return Response with the neighbours and their cosine similarity, most similar first
+	 */
+	@GET
+	@Path("/neighbours")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response apiSimilarityNeighbours(
+			@CookieParam(SimilarityProcessingService.SESSION_COOKIE_NAME) Cookie sessionCookie,
+			@QueryParam("semid") String semid,
+			@QueryParam("k") @DefaultValue("5") int k) {
+		if (k < 1 || k > NeighbourService.MAX_K) {
+			LOG.error("Validation error for k parameter: " + k);
+			return Response.status(Response.Status.BAD_REQUEST)
+					.entity(new ApiResponse("K parameter validation failed.", "k must be between 1 and " + NeighbourService.MAX_K + ".", null))
+					.build();
+		}
+		try {
+			SessionLookup lookup = lookupSession(sessionCookie, "/neighbours");
+			if (lookup.error() != null) {
+				return lookup.error();
+			}
+			String sessionId = lookup.sessionId();
+			SessionData sessionData = lookup.session();
+
+			if (sessionData.getProcessingStatus() == SessionData.ProcessingStatus.PROCESSING) {
+				return Response.status(Response.Status.ACCEPTED)
+						.entity(new ApiResponse("Processing in progress. Please try again later.", null, sessionId))
+						.build();
+			}
+			if (sessionData.getProcessingStatus() != SessionData.ProcessingStatus.COMPLETED) {
+				return Response.status(Response.Status.CONFLICT)
+						.entity(new ApiResponse(null, "Session has no embeddings, its processing status is " + sessionData.getProcessingStatus() + ".", sessionId))
+						.build();
+			}
+
+			List<ElementNeighbours> neighbours;
+			if (semid == null || semid.isEmpty()) {
+				neighbours = neighbourService.allNeighbours(sessionData.getAllSentences(), k);
+			} else {
+				ElementNeighbours elementNeighbours = neighbourService.neighboursOf(sessionData.getAllSentences(), semid, k);
+				if (elementNeighbours == null) {
+					return Response.status(Response.Status.NOT_FOUND)
+							.entity(new ApiResponse(null, "No element with semid " + semid + " in session.", sessionId))
+							.build();
+				}
+				neighbours = List.of(elementNeighbours);
+			}
+
+			ApiResponse response = new ApiResponse("Nearest neighbours are available.", null, sessionId);
+			response.setNeighbours(neighbours);
+			return Response.ok().entity(response).build();
+
+		} catch (Exception e) {
+			LOG.error("Error retrieving nearest neighbours", e);
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+					.entity(new ApiResponse(e.getMessage(), null))
+					.build();
+		}
+	}
+
+	/**
+	 * Regroup a processed session at another threshold, from the pairs kept in the session when it
+	 * was processed. Neither the XML nor the embedding model is touched. The groups stored in the
+	 * session are left as they are.
+	 *
+	 * @param sessionCookie Session cookie containing the session ID
+	 * @param threshold     Similarity threshold, at least the floor of the session's neighbour graph
+	 * @return Response with the similarity groups at the threshold
+	 */
+	@GET
+	@Path("/regroup")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response apiSimilarityRegroup(
+			@CookieParam(SimilarityProcessingService.SESSION_COOKIE_NAME) Cookie sessionCookie,
+			@QueryParam("threshold") Double threshold) {
+		if (threshold == null || threshold < 0.0 || threshold > 1.0) {
+			LOG.error("Validation error for threshold parameter: " + threshold);
+			return Response.status(Response.Status.BAD_REQUEST)
+					.entity(new ApiResponse("Threshold parameter validation failed.", "Threshold is required and must be between 0.0 and 1.0." , null))
+					.build();
+		}
+		try {
+			SessionLookup lookup = lookupSession(sessionCookie, "/regroup");
+			if (lookup.error() != null) {
+				return lookup.error();
+			}
+			String sessionId = lookup.sessionId();
+			SessionData sessionData = lookup.session();
+
+			if (sessionData.getProcessingStatus() == SessionData.ProcessingStatus.PROCESSING) {
+				return Response.status(Response.Status.ACCEPTED)
+						.entity(new ApiResponse("Processing in progress. Please try again later.", null, sessionId))
+						.build();
+			}
+			NeighbourGraph neighbourGraph = sessionData.getNeighbourGraph();
+			if (sessionData.getProcessingStatus() != SessionData.ProcessingStatus.COMPLETED || neighbourGraph == null) {
+				return Response.status(Response.Status.CONFLICT)
+						.entity(new ApiResponse(null, "Session has no neighbour graph to regroup, its processing status is " + sessionData.getProcessingStatus() + ".", sessionId))
+						.build();
+			}
+			if (threshold < neighbourGraph.getFloor()) {
+				return Response.status(Response.Status.BAD_REQUEST)
+						.entity(new ApiResponse("Threshold parameter validation failed.", "Threshold must be at least " + neighbourGraph.getFloor() + " for this session.", sessionId))
+						.build();
+			}
+
+			List<List<String>> similarityGroups = groupingService.group(sessionData.getAllSentences(), neighbourGraph, threshold);
+			LOG.info("Returning " + similarityGroups.size() + " similarity groups at threshold " + threshold + " for session: " + sessionId);
+			return Response.ok()
+					.entity(new ApiResponse("Regrouping completed at threshold " + threshold + ".", null, sessionId, similarityGroups))
+					.build();
+
+		} catch (Exception e) {
+			LOG.error("Error regrouping session", e);
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+					.entity(new ApiResponse(e.getMessage(), null))
+					.build();
+		}
+	}
+
+	/**
+	 * Retrieve the single-linkage clustering hierarchy of a processed session, so clients can cut it
+	 * at any threshold from the session's floor on without further requests.
+	 *
+	 * @param sessionCookie Session cookie containing the session ID
+	 * @return Response with the texts and their merges, most similar first
+	 */
+	@GET
+	@Path("/hierarchy")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response apiSimilarityHierarchy(@CookieParam(SimilarityProcessingService.SESSION_COOKIE_NAME) Cookie sessionCookie) {
+		try {
+			SessionLookup lookup = lookupSession(sessionCookie, "/hierarchy");
+			if (lookup.error() != null) {
+				return lookup.error();
+			}
+			String sessionId = lookup.sessionId();
+			SessionData sessionData = lookup.session();
+
+			if (sessionData.getProcessingStatus() == SessionData.ProcessingStatus.PROCESSING) {
+				return Response.status(Response.Status.ACCEPTED)
+						.entity(new ApiResponse("Processing in progress. Please try again later.", null, sessionId))
+						.build();
+			}
+			NeighbourGraph neighbourGraph = sessionData.getNeighbourGraph();
+			if (sessionData.getProcessingStatus() != SessionData.ProcessingStatus.COMPLETED || neighbourGraph == null) {
+				return Response.status(Response.Status.CONFLICT)
+						.entity(new ApiResponse(null, "Session has no neighbour graph to build a hierarchy from, its processing status is " + sessionData.getProcessingStatus() + ".", sessionId))
+						.build();
+			}
+
+			GroupHierarchy hierarchy = groupingService.hierarchy(sessionData.getAllSentences(), neighbourGraph);
+			ApiResponse response = new ApiResponse("Clustering hierarchy is available.", null, sessionId);
+			response.setHierarchy(hierarchy);
+			return Response.ok().entity(response).build();
+
+		} catch (Exception e) {
+			LOG.error("Error building clustering hierarchy", e);
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+					.entity(new ApiResponse(e.getMessage(), null))
+					.build();
+		}
+	}
+
+	/**
+	 * Download the processed document with cms:semid, cms:group and cms:score attributes on the selected
+	 * elements. The document is streamed from the session's copy of the upload to the response.
+	 *
+	 * @param sessionCookie Session cookie containing the session ID
+	 * @return Response with the annotated XML document, or a JSON error
+	 */
+	@GET
+	@Path("/export")
+	@Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+	public Response apiSimilarityExport(@CookieParam(SimilarityProcessingService.SESSION_COOKIE_NAME) Cookie sessionCookie) {
+		SessionLookup lookup = lookupSession(sessionCookie, "/export");
+		if (lookup.error() != null) {
+			return Response.fromResponse(lookup.error()).type(MediaType.APPLICATION_JSON_TYPE).build();
+		}
+		String sessionId = lookup.sessionId();
+		SessionData sessionData = lookup.session();
+
+		if (sessionData.getProcessingStatus() == SessionData.ProcessingStatus.PROCESSING) {
+			return Response.status(Response.Status.ACCEPTED)
+					.type(MediaType.APPLICATION_JSON_TYPE)
+					.entity(new ApiResponse("Processing in progress. Please try again later.", null, sessionId))
+					.build();
+		}
+		if (sessionData.getProcessingStatus() != SessionData.ProcessingStatus.COMPLETED || sessionData.getSourceFile() == null) {
+			return Response.status(Response.Status.CONFLICT)
+					.type(MediaType.APPLICATION_JSON_TYPE)
+					.entity(new ApiResponse(null, "Session has no document to export, its processing status is " + sessionData.getProcessingStatus() + ".", sessionId))
+					.build();
+		}
+
+		StreamingOutput output = out -> {
+			try {
+				similarityProcessingService.writeAnnotatedXml(sessionData, out);
+			} catch (XMLStreamException e) {
+				LOG.error("Error exporting session " + sessionId, e);
+				throw new IOException(e);
+			}
+		};
+		LOG.info("Exporting annotated document for session: " + sessionId);
+		return Response.ok(output, MediaType.APPLICATION_XML_TYPE).build();
+	}
+
+	/**
+	 * Session of a session cookie, or the error response to return when there is none.
+	 */
+	private record SessionLookup(String sessionId, SessionData session, Response error) {
+	}
+
+	/**
+	 * Validate a session cookie and look up its session.
+	 *
+	 * @param sessionCookie Session cookie containing the session ID
+	 * @param endpoint      Endpoint name for logging
+	 */
+	private SessionLookup lookupSession(Cookie sessionCookie, String endpoint) {
+		if (sessionCookie == null) {
+			LOG.warn(endpoint + " was requested but Session cookie was null");
+			return new SessionLookup(null, null, Response.status(Response.Status.BAD_REQUEST)
+					.entity(new ApiResponse(null,"Session cookie was never sent.", null))
+					.build());
+		}
+		LOG.info(endpoint + " was requested with sessionid: " + sessionCookie.getValue());
+
+		String sessionId = sessionCookie.getValue();
+
+		if (sessionId.isEmpty()) {
+			LOG.warn("Session cookie's value was an empty string");
+			return new SessionLookup(sessionId, null, Response.status(Response.Status.BAD_REQUEST)
+					.entity(new ApiResponse(null,"Session cookie's value was an empty string", null))
+					.build());
+		}
+
+		// Validate session ID as UUID
+		try {
+			UUID.fromString(sessionId);
+		} catch (IllegalArgumentException e) {
+			LOG.warn("Session ID was not in UUID format: " + sessionId);
+			return new SessionLookup(sessionId, null, Response.status(Response.Status.BAD_REQUEST)
+					.entity(new ApiResponse(null,"Invalid session ID, not UUID format.", sessionId))
+					.build());
+		}
+
+		SessionData sessionData = sessionService.getSession(sessionId);
+
+		// If no session found, return 404 Not Found
+		if (sessionData == null) {
+			LOG.info("No session found for ID: " + sessionId);
+			return new SessionLookup(sessionId, null, Response.status(Response.Status.NOT_FOUND)
+					.entity(new ApiResponse(null,"No session found for ID: " + sessionId, null))
+					.build());
+		}
+		return new SessionLookup(sessionId, sessionData, null);
+	}
 }
\ No newline at end of file
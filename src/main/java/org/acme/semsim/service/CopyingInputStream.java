@@ -0,0 +1,49 @@
+package org.acme.semsim.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Input stream that writes every byte read from it to a copy, so an upload can be parsed and kept at
+ * the same time without buffering it in memory.
+ */
+class CopyingInputStream extends FilterInputStream {
+
+	private final OutputStream copy;
+
+	CopyingInputStream(InputStream in, OutputStream copy) {
+		super(in);
+		this.copy = copy;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0) {
+			copy.write(b);
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if (n > 0) {
+			copy.write(b, off, n);
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		// Skipped bytes must reach the copy too
+		return Math.max(0, read(new byte[(int) Math.min(n, 8192)]));
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
@@ -0,0 +1,144 @@
+package org.acme.semsim.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled form of the elements parameter, deciding per element whether its text is extracted.
+ * The parameter is a space-separated list of selectors. A name like {@code p} or {@code dita:p}
+ * matches elements with that qualified name, like the XPath test name()='p'. A DITA class like
+ * {@code topic/p} matches elements whose class attribute lists it, so it also selects all
+ * specialisations of the element, e.g. task/cmd elements, which carry "- topic/ph task/cmd ".
+ * Only class attributes written in the document are seen: DTDs are never loaded, so the class
+ * defaults that DITA DTDs declare are not applied and a document without explicit class attributes
+ * matches no class selector.
+ * <p>
+ * Selectors are compiled once per distinct parameter and kept in a small LRU cache shared by all
+ * requests, so matching a document is a single walk over its elements without an XPath engine.
+ */
+public final class ElementSelector {
+
+	/** Accepted elements parameter, space-separated qualified names or DITA module/element classes */
+	private static final Pattern VALID = Pattern.compile(
+			"^\\s*([a-zA-Z_][a-zA-Z0-9_.-]*(:[a-zA-Z_][a-zA-Z0-9_.-]*|/[a-zA-Z_][a-zA-Z0-9_.-]*)?)" +
+					"(\\s+[a-zA-Z_][a-zA-Z0-9_.-]*(:[a-zA-Z_][a-zA-Z0-9_.-]*|/[a-zA-Z_][a-zA-Z0-9_.-]*)?)*\\s*$");
+
+	private static final int CACHE_SIZE = 256;
+
+	private static final Map<String, ElementSelector> CACHE = new LinkedHashMap<>(64, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ElementSelector> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private final Set<String> names;
+	private final String[] classes;
+
+	private ElementSelector(Set<String> names, String[] classes) {
+		this.names = names;
+		this.classes = classes;
+	}
+
+	/**
+	 * @param elements Elements parameter
+	 * @return Whether the parameter can be compiled
+	 */
+	public static boolean isValid(String elements) {
+		return elements != null && VALID.matcher(elements).matches();
+	}
+
+	/**
+	 * Compile an elements parameter, or return the cached selector compiled for it before.
+	 *
+	 * @param elements Space-separated names and DITA classes
+	 * @return Selector matching any of them
+	 * @throws IllegalArgumentException if the parameter is not valid
+	 */
+	public static ElementSelector compile(String elements) {
+		synchronized (CACHE) {
+			ElementSelector selector = CACHE.get(elements);
+			if (selector != null) {
+				return selector;
+			}
+		}
+		if (!isValid(elements)) {
+			throw new IllegalArgumentException("Invalid elements parameter: " + elements);
+		}
+		Set<String> names = new HashSet<>();
+		List<String> classes = new ArrayList<>();
+		for (String selector : elements.trim().split("\\s+")) {
+			if (selector.indexOf('/') >= 0) {
+				if (!classes.contains(selector)) {
+					classes.add(selector);
+				}
+			} else {
+				names.add(selector);
+			}
+		}
+		ElementSelector selector = new ElementSelector(names, classes.toArray(new String[0]));
+		synchronized (CACHE) {
+			CACHE.put(elements, selector);
+		}
+		return selector;
+	}
+
+	/**
+	 * @return Whether matching needs the class attribute of elements
+	 */
+	public boolean usesClasses() {
+		return classes.length > 0;
+	}
+
+	/**
+	 * @param name           Qualified name of an element
+	 * @param classAttribute Its class attribute, or null if it has none or {@link #usesClasses()} is false
+	 * @return Whether the element is selected
+	 */
+	public boolean matches(String name, String classAttribute) {
+		if (names.contains(name)) {
+			return true;
+		}
+		return matchesClass(classAttribute);
+	}
+
+	/**
+	 * @param classAttribute Class attribute of an element, or null
+	 * @return Whether it lists one of the selected DITA classes
+	 */
+	public boolean matchesClass(String classAttribute) {
+		if (classAttribute == null) {
+			return false;
+		}
+		for (String cls : classes) {
+			if (containsToken(classAttribute, cls)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether a whitespace-separated list contains a token, without splitting the list.
+	 */
+	private static boolean containsToken(String list, String token) {
+		int from = 0;
+		while (true) {
+			int at = list.indexOf(token, from);
+			if (at < 0) {
+				return false;
+			}
+			int end = at + token.length();
+			if ((at == 0 || Character.isWhitespace(list.charAt(at - 1))) &&
+					(end == list.length() || Character.isWhitespace(list.charAt(end)))) {
+				return true;
+			}
+			from = at + 1;
+		}
+	}
+}
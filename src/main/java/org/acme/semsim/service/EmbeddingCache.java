@@ -0,0 +1,160 @@
+package org.acme.semsim.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, concurrent LRU cache of embedding vectors.
+ * <p>
+ * The cache is split into segments, each an access-ordered {@link LinkedHashMap} guarded by
+ * its own lock, so concurrent sessions rarely contend. Every segment evicts its least recently
+ * used vectors once it exceeds its share of the byte budget.
+ */
+public class EmbeddingCache {
+
+	// Rough per-entry heap cost besides the vector data: map entry, key and array header
+	private static final long ENTRY_OVERHEAD_BYTES = 96;
+
+	private final Segment[] segments;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxBytes     Byte budget for all cached vectors
+	 * @param segmentCount Number of independently locked segments
+	 */
+	public EmbeddingCache(long maxBytes, int segmentCount) {
+		int count = Math.max(1, segmentCount);
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment(maxBytes / count);
+		}
+	}
+
+	/**
+	 * Register hit, miss and eviction counters and size gauges with a meter registry.
+	 */
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("semsim.embedding.cache.hits", hits, LongAdder::sum)
+				.description("Embedding cache lookups that found a vector")
+				.register(registry);
+		FunctionCounter.builder("semsim.embedding.cache.misses", misses, LongAdder::sum)
+				.description("Embedding cache lookups that found no vector")
+				.register(registry);
+		FunctionCounter.builder("semsim.embedding.cache.evictions", evictions, LongAdder::sum)
+				.description("Vectors evicted to stay within the byte budget")
+				.register(registry);
+		Gauge.builder("semsim.embedding.cache.size", this, EmbeddingCache::size)
+				.description("Vectors held in the embedding cache")
+				.register(registry);
+		Gauge.builder("semsim.embedding.cache.bytes", this, EmbeddingCache::sizeInBytes)
+				.description("Estimated heap bytes held by the embedding cache")
+				.baseUnit("bytes")
+				.register(registry);
+	}
+
+	/**
+	 * Look up a vector.
+	 *
+	 * @return The cached vector, or null on a miss. The array must not be modified.
+	 */
+	public float[] get(EmbeddingKey key) {
+		float[] vector = segmentFor(key).get(key);
+		if (vector == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return vector;
+	}
+
+	/**
+	 * Store a vector, evicting least recently used vectors if the segment is over budget.
+	 * The array must not be modified after it was put.
+	 */
+	public void put(EmbeddingKey key, float[] vector) {
+		evictions.add(segmentFor(key).put(key, vector));
+	}
+
+	public long size() {
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	public long sizeInBytes() {
+		long bytes = 0;
+		for (Segment segment : segments) {
+			bytes += segment.bytes();
+		}
+		return bytes;
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	private Segment segmentFor(EmbeddingKey key) {
+		return segments[(int) ((key.low() & Long.MAX_VALUE) % segments.length)];
+	}
+
+	private static long entryBytes(float[] vector) {
+		return ENTRY_OVERHEAD_BYTES + 4L * vector.length;
+	}
+
+	private static final class Segment {
+		private final long maxBytes;
+		private final LinkedHashMap<EmbeddingKey, float[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+		private long bytes;
+
+		Segment(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		synchronized float[] get(EmbeddingKey key) {
+			return entries.get(key);
+		}
+
+		synchronized int put(EmbeddingKey key, float[] vector) {
+			float[] previous = entries.put(key, vector);
+			if (previous != null) {
+				bytes -= entryBytes(previous);
+			}
+			bytes += entryBytes(vector);
+
+			int evicted = 0;
+			Iterator<Map.Entry<EmbeddingKey, float[]>> it = entries.entrySet().iterator();
+			while (bytes > maxBytes && it.hasNext()) {
+				bytes -= entryBytes(it.next().getValue());
+				it.remove();
+				evicted++;
+			}
+			return evicted;
+		}
+
+		synchronized int size() {
+			return entries.size();
+		}
+
+		synchronized long bytes() {
+			return bytes;
+		}
+	}
+}
@@ -0,0 +1,353 @@
+package org.acme.semsim.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.acme.semsim.model.Sentence;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Coalesces embedding requests of concurrent sessions into shared inference calls.
+ * <p>
+ * A dispatcher thread takes pending requests from a queue and hands them to one of
+ * {@code semsim.inference.sessions} workers as a single call to {@link EmbeddingService}.
+ * A request that arrives while all inference sessions are idle is dispatched right away, so a
+ * lone request sees no added latency. While batches are running, the dispatcher keeps collecting
+ * for up to {@code maxWaitMillis} or until {@code maxBatch} texts are pending, so concurrent
+ * uploads of small topics fill the batches that the sessions would otherwise run half empty.
+ * <p>
+ * Requests larger than {@code maxBatch} are split into slices that take turns with the slices of
+ * other requests, so one large upload does not hold the sessions while small uploads wait.
+ */
+@ApplicationScoped
+public class EmbeddingDispatcher {
+
+	private static final Logger LOG = Logger.getLogger(EmbeddingDispatcher.class);
+
+	@ConfigProperty(name = "semsim.embedding.dispatcher.maxWaitMillis", defaultValue = "5")
+	long maxWaitMillis;
+
+	@ConfigProperty(name = "semsim.embedding.dispatcher.maxBatch", defaultValue = "256")
+	int maxBatch;
+
+	@ConfigProperty(name = "semsim.inference.sessions", defaultValue = "1")
+	int inferenceSessions;
+
+	@Inject
+	EmbeddingService embeddingService;
+
+	@Inject
+	MeterRegistry meterRegistry;
+
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+	private Function<List<String>, List<Sentence>> embedder;
+	private Semaphore idleWorkers;
+	private ExecutorService workers;
+	private Thread dispatcherThread;
+	private volatile boolean running;
+
+	private DistributionSummary batchTexts;
+	private DistributionSummary batchRequests;
+	private DistributionSummary batchFill;
+	private Timer queueWait;
+
+	/**
+	 * A caller's texts and the future completed with their embeddings once all its slices are done.
+	 */
+	private static final class Request {
+		private final List<String> texts;
+		private final CompletableFuture<List<Sentence>> result;
+		private final long submittedNanos;
+		private final Sentence[] sentences;
+		private final AtomicInteger remaining;
+		/** Texts handed out in slices so far, only used by the dispatcher thread */
+		private int dispatched;
+
+		Request(List<String> texts, CompletableFuture<List<Sentence>> result, long submittedNanos) {
+			this.texts = texts;
+			this.result = result;
+			this.submittedNanos = submittedNanos;
+			this.sentences = new Sentence[texts.size()];
+			this.remaining = new AtomicInteger(texts.size());
+		}
+
+		List<String> texts() {
+			return texts;
+		}
+
+		CompletableFuture<List<Sentence>> result() {
+			return result;
+		}
+
+		long submittedNanos() {
+			return submittedNanos;
+		}
+
+		/**
+		 * Store the embeddings of one slice and complete the future when it was the last one.
+		 */
+		void complete(int from, List<Sentence> slice) {
+			for (int i = 0; i < slice.size(); i++) {
+				sentences[from + i] = slice.get(i);
+			}
+			if (remaining.addAndGet(-slice.size()) == 0) {
+				result.complete(new ArrayList<>(Arrays.asList(sentences)));
+			}
+		}
+	}
+
+	/**
+	 * Texts {@code from} to {@code to} of a request, dispatched in one inference call.
+	 */
+	private record Slice(Request request, int from, int to) {
+		List<String> texts() {
+			return request.texts().subList(from, to);
+		}
+	}
+
+	@PostConstruct
+	void initialize() {
+		start(embeddingService::generateEmbeddings, meterRegistry);
+	}
+
+	/**
+	 * Start the dispatcher thread and the inference workers.
+	 *
+	 * @param embedder Embeds a list of texts in order
+	 * @param registry Registry for the batch metrics
+	 */
+	void start(Function<List<String>, List<Sentence>> embedder, MeterRegistry registry) {
+		this.embedder = embedder;
+		int workerCount = Math.max(1, inferenceSessions);
+		idleWorkers = new Semaphore(workerCount);
+		workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+			Thread thread = new Thread(runnable, "embedding-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		batchTexts = DistributionSummary.builder("semsim.embedding.dispatcher.batch.texts")
+				.description("Texts per dispatched inference call")
+				.register(registry);
+		batchRequests = DistributionSummary.builder("semsim.embedding.dispatcher.batch.requests")
+				.description("Caller requests coalesced into one inference call")
+				.register(registry);
+		batchFill = DistributionSummary.builder("semsim.embedding.dispatcher.batch.fill")
+				.description("Texts per dispatched inference call as a fraction of maxBatch")
+				.register(registry);
+		queueWait = Timer.builder("semsim.embedding.dispatcher.wait")
+				.description("Time a request waits before its inference call starts")
+				.register(registry);
+
+		running = true;
+		dispatcherThread = new Thread(this::dispatchLoop, "embedding-dispatcher");
+		dispatcherThread.setDaemon(true);
+		dispatcherThread.start();
+		LOG.info("Embedding dispatcher started with " + workerCount + " workers, max wait " + maxWaitMillis +
+				" ms and max batch " + maxBatch + " texts");
+	}
+
+	@PreDestroy
+	void shutdown() {
+		running = false;
+		if (dispatcherThread != null) {
+			dispatcherThread.interrupt();
+		}
+		if (workers != null) {
+			workers.shutdownNow();
+		}
+		Request request;
+		while ((request = queue.poll()) != null) {
+			request.result().completeExceptionally(new IllegalStateException("Embedding dispatcher stopped"));
+		}
+	}
+
+	/**
+	 * Queue texts for embedding together with other pending requests.
+	 *
+	 * @param texts Texts to embed
+	 * @return Future completed with one Sentence per text, in input order
+	 */
+	public CompletableFuture<List<Sentence>> submit(List<String> texts) {
+		CompletableFuture<List<Sentence>> result = new CompletableFuture<>();
+		if (texts.isEmpty()) {
+			result.complete(List.of());
+			return result;
+		}
+		if (!running) {
+			result.completeExceptionally(new IllegalStateException("Embedding dispatcher stopped"));
+			return result;
+		}
+		queue.add(new Request(texts, result, System.nanoTime()));
+		return result;
+	}
+
+	/**
+	 * Embed texts together with other pending requests and wait for the result.
+	 *
+	 * @param texts Texts to embed
+	 * @return One Sentence per text, in input order
+	 */
+	public List<Sentence> generateEmbeddings(List<String> texts) {
+		try {
+			return submit(texts).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw e;
+		}
+	}
+
+	private void dispatchLoop() {
+		// Requests with texts left to dispatch, in turn order; only touched by the dispatcher thread
+		Deque<Request> pending = new ArrayDeque<>();
+		try {
+			while (running) {
+				if (pending.isEmpty()) {
+					pending.add(queue.take());
+				}
+				queue.drainTo(pending);
+
+				// Only wait for more while other calls keep the sessions busy, a lone request goes straight through
+				if (idleWorkers.availablePermits() == 0 && pendingTexts(pending) < maxBatch) {
+					long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+					while (pendingTexts(pending) < maxBatch) {
+						long remaining = deadline - System.nanoTime();
+						Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+						if (next == null) {
+							break;
+						}
+						pending.add(next);
+					}
+				}
+
+				idleWorkers.acquire();
+				// Slices are cut only now, so requests that arrived while waiting for a session join this call
+				List<Slice> batch = new ArrayList<>();
+				int texts = fill(batch, pending);
+				if (batch.isEmpty()) {
+					idleWorkers.release();
+					continue;
+				}
+				int batchSize = texts;
+				try {
+					workers.execute(() -> {
+						try {
+							run(batch, batchSize);
+						} finally {
+							idleWorkers.release();
+						}
+					});
+				} catch (RuntimeException e) {
+					// Typically a RejectedExecutionException during shutdown, the batch never runs
+					idleWorkers.release();
+					fail(batch, e);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			IllegalStateException stopped = new IllegalStateException("Embedding dispatcher stopped");
+			for (Request request : pending) {
+				request.result().completeExceptionally(stopped);
+			}
+		}
+	}
+
+	/**
+	 * Add slices of pending requests to a batch until it holds {@code maxBatch} texts. Requests take
+	 * turns: each contributes one slice, and a request with texts left goes to the back of the line,
+	 * so a large upload is spread over several calls and small uploads queued behind it still get
+	 * into the next one.
+	 *
+	 * @return Number of texts in the batch
+	 */
+	private int fill(List<Slice> batch, Deque<Request> pending) {
+		queue.drainTo(pending);
+		int texts = 0;
+		while (texts < maxBatch && !pending.isEmpty()) {
+			Request request = pending.poll();
+			if (request.result().isDone()) {
+				// An earlier slice failed, the rest of the request is not worth embedding
+				continue;
+			}
+			int from = request.dispatched;
+			int to = Math.min(request.texts().size(), from + maxBatch - texts);
+			batch.add(new Slice(request, from, to));
+			texts += to - from;
+			request.dispatched = to;
+			if (to < request.texts().size()) {
+				pending.add(request);
+			}
+		}
+		return texts;
+	}
+
+	private static int pendingTexts(Deque<Request> pending) {
+		int texts = 0;
+		for (Request request : pending) {
+			texts += request.texts().size() - request.dispatched;
+		}
+		return texts;
+	}
+
+	/**
+	 * Run one inference call for all slices of a batch and complete the futures of the requests
+	 * whose last slice this was.
+	 */
+	private void run(List<Slice> batch, int texts) {
+		long now = System.nanoTime();
+		List<String> allTexts = new ArrayList<>(texts);
+		for (Slice slice : batch) {
+			allTexts.addAll(slice.texts());
+			if (slice.from() == 0) {
+				queueWait.record(now - slice.request().submittedNanos(), TimeUnit.NANOSECONDS);
+			}
+		}
+		batchTexts.record(texts);
+		batchRequests.record(batch.size());
+		batchFill.record(Math.min(1.0, (double) texts / maxBatch));
+		LOG.debug("Dispatching " + texts + " texts of " + batch.size() + " requests in one inference call");
+
+		try {
+			List<Sentence> sentences = embedder.apply(allTexts);
+			int offset = 0;
+			for (Slice slice : batch) {
+				int size = slice.to() - slice.from();
+				slice.request().complete(slice.from(), sentences.subList(offset, offset + size));
+				offset += size;
+			}
+		} catch (RuntimeException | Error e) {
+			LOG.error("Embedding call for " + batch.size() + " requests failed", e);
+			fail(batch, e);
+		}
+	}
+
+	private static void fail(List<Slice> batch, Throwable e) {
+		for (Slice slice : batch) {
+			slice.request().result().completeExceptionally(e);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package org.acme.semsim.service;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+
+/**
+ * Cache key for an embedding: the first 128 bits of the SHA-256 of the model id and the
+ * normalized text. Texts that only differ in surrounding or repeated whitespace, or in
+ * Unicode composition, share a key.
+ *
+ * @param high First 64 bits of the hash
+ * @param low  Next 64 bits of the hash
+ */
+public record EmbeddingKey(long high, long low) {
+
+	/**
+	 * Create the key for a text embedded with the given model.
+	 *
+	 * @param text    The text to embed
+	 * @param modelId Identifier of the model (and variant) producing the embedding
+	 * @return The key
+	 */
+	public static EmbeddingKey of(String text, String modelId) {
+		String normalized = normalize(text);
+		byte[] digest = DigestUtils.sha256((modelId + '\u0000' + normalized).getBytes(StandardCharsets.UTF_8));
+		ByteBuffer buffer = ByteBuffer.wrap(digest);
+		return new EmbeddingKey(buffer.getLong(), buffer.getLong());
+	}
+
+	/**
+	 * Normalize a text the same way as XPath normalize-space(), after NFC composition.
+	 */
+	static String normalize(String text) {
+		String composed = Normalizer.normalize(text, Normalizer.Form.NFC);
+		StringBuilder sb = new StringBuilder(composed.length());
+		boolean pendingSpace = false;
+		for (int i = 0; i < composed.length(); i++) {
+			char c = composed.charAt(i);
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+				pendingSpace = sb.length() > 0;
+				continue;
+			}
+			if (pendingSpace) {
+				sb.append(' ');
+				pendingSpace = false;
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+}
@@ -1,26 +1,29 @@
 package org.acme.semsim.service;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 import org.acme.semsim.model.Sentence;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
 import java.io.IOException;
-import java.io.File;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.LongBuffer;
 import java.nio.FloatBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
-import java.util.HashMap;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.util.Optional;
+import java.util.function.IntFunction;
 
 import ai.onnxruntime.OnnxTensor;
 import ai.onnxruntime.OrtEnvironment;
@@ -35,13 +38,77 @@ import ai.onnxruntime.OrtSession;
 public class EmbeddingService {
 
 	private static final Logger LOG = Logger.getLogger(EmbeddingService.class);
-	private static final int VECTOR_SIZE = 384; // Size of embeddings from all-MiniLM-L6-v2
+	static final int VECTOR_SIZE = 384; // Size of embeddings from all-MiniLM-L6-v2
 	private static final int MAX_SEQ_LENGTH = 512; // Maximum sequence length for the model
+	private static final int MAX_RETAINED_TOKEN_BUFFER = 1 << 16; // Larger token buffers are not kept per thread
+	private static final String MODEL_DIRECTORY = "/models/all-MiniLM-L6-v2-onnx/";
+	static final String DEFAULT_VARIANT = "fp32";
 
+	@ConfigProperty(name = "semsim.embedding.batchSize", defaultValue = "32")
+	int batchSize;
+
+	@ConfigProperty(name = "semsim.embedding.maxBatchTokens", defaultValue = "8192")
+	int maxBatchTokens;
+
+	@ConfigProperty(name = "semsim.embedding.window.size", defaultValue = "256")
+	int windowSize;
+
+	@ConfigProperty(name = "semsim.embedding.window.stride", defaultValue = "192")
+	int windowStride;
+
+	@ConfigProperty(name = "semsim.embedding.chunking.enabled", defaultValue = "true")
+	boolean chunkingEnabled;
+
+	@ConfigProperty(name = "semsim.embedding.model.id", defaultValue = "all-MiniLM-L6-v2")
+	String modelId;
+
+	@ConfigProperty(name = "semsim.embedding.model.path")
+	Optional<String> modelPath;
+
+	@ConfigProperty(name = "semsim.embedding.model.variant", defaultValue = DEFAULT_VARIANT)
+	String modelVariant;
+
+	@ConfigProperty(name = "semsim.inference.optimizedModelPath")
+	Optional<String> optimizedModelPath;
+
+	@ConfigProperty(name = "semsim.embedding.cache.enabled", defaultValue = "true")
+	boolean cacheEnabled;
+
+	@ConfigProperty(name = "semsim.embedding.cache.maxBytes", defaultValue = "67108864")
+	long cacheMaxBytes;
+
+	@ConfigProperty(name = "semsim.embedding.store.enabled", defaultValue = "false")
+	boolean storeEnabled;
+
+	@ConfigProperty(name = "semsim.embedding.store.path", defaultValue = "data/embeddings.store")
+	String storePath;
+
+	@ConfigProperty(name = "semsim.inference.sessions", defaultValue = "1")
+	int inferenceSessions;
+
+	@ConfigProperty(name = "semsim.inference.intraOpThreads", defaultValue = "0")
+	int intraOpThreads;
+
+	@ConfigProperty(name = "semsim.inference.interOpThreads", defaultValue = "0")
+	int interOpThreads;
+
+	@ConfigProperty(name = "semsim.inference.executionMode", defaultValue = "SEQUENTIAL")
+	OrtSession.SessionOptions.ExecutionMode executionMode;
+
+	@ConfigProperty(name = "semsim.inference.optimizationLevel", defaultValue = "ALL_OPT")
+	OrtSession.SessionOptions.OptLevel optimizationLevel;
+
+	@Inject
+	MeterRegistry meterRegistry;
+
+	private String vectorModelId;
+	private EmbeddingCache cache;
+	private EmbeddingStore store;
 	private OrtEnvironment env;
-	private OrtSession session;
-	private Map<String, Integer> tokenToId;
-	private Map<Integer, String> idToToken;
+	private OrtSessionPool sessionPool;
+	private WordPieceTokenizer tokenizer;
+	private final ThreadLocal<long[]> tokenBuffer = ThreadLocal.withInitial(() -> new long[MAX_SEQ_LENGTH]);
+	private final ThreadLocal<InferenceBuffers> inferenceBuffers = ThreadLocal.withInitial(InferenceBuffers::new);
 
 	@PostConstruct
 	void initialize() {
@@ -55,70 +122,199 @@ public class EmbeddingService {
 	}
 
 	private void initializeModel() throws IOException, OrtException {
-		LOG.info("Loading all-MiniLM-L6-v2-onnx model");
+		if (windowSize < 3 || windowSize > MAX_SEQ_LENGTH) {
+			throw new IllegalArgumentException("semsim.embedding.window.size must be between 3 and " + MAX_SEQ_LENGTH);
+		}
+		if (windowStride < 1 || windowStride > windowSize - 2) {
+			throw new IllegalArgumentException("semsim.embedding.window.stride must be between 1 and window size - 2");
+		}
+		LOG.info("Loading all-MiniLM-L6-v2-onnx model, variant " + modelVariant);
+		String modelFile = modelFileName(modelVariant);
+		// Vectors of different variants differ slightly, so they must not share cache entries
+		vectorModelId = DEFAULT_VARIANT.equals(modelVariant) ? modelId : modelId + "/" + modelVariant;
+		// Long texts are embedded differently per window setting
+		vectorModelId += "@" + windowSize + (chunkingEnabled ? ":" + windowStride : "");
+		long startNanos = System.nanoTime();
+		long startRss = residentSetKilobytes();
 
 		// Initialize ONNX Runtime environment
 		env = OrtEnvironment.getEnvironment();
 
-		// Load the model from resources
-		// First, copy the model to a temporary file
-		File modelFile = extractResourceToTempFile("/models/all-MiniLM-L6-v2-onnx/model.onnx", "model", ".onnx");
+		// Create the pool of sessions with the configured threading
+		sessionPool = createSessionPool(modelFile);
 
-		// Create session options
-		OrtSession.SessionOptions sessionOptions = new OrtSession.SessionOptions();
+		// Load tokenizer
+		loadTokenizer();
 
-		// Create session with the model file
-		session = env.createSession(modelFile.getAbsolutePath(), sessionOptions);
+		// Create the embedding cache shared by all sessions
+		if (cacheEnabled) {
+			cache = new EmbeddingCache(cacheMaxBytes, Runtime.getRuntime().availableProcessors() * 2);
+			cache.bindTo(meterRegistry);
+			LOG.info("Embedding cache enabled with a budget of " + cacheMaxBytes + " bytes");
+		}
 
-		// Load vocabulary
-		loadVocabulary();
+		// Open the persistent embedding store, processing continues without it if it cannot be opened
+		if (storeEnabled) {
+			try {
+				store = new EmbeddingStore(Paths.get(storePath), vectorModelId, VECTOR_SIZE);
+			} catch (IOException e) {
+				LOG.error("Failed to open embedding store " + storePath + ", continuing without it", e);
+			}
+		}
 
-		LOG.info("Model loaded successfully");
+		LOG.info("Model loaded successfully in " + (System.nanoTime() - startNanos) / 1_000_000 + " ms, RSS " +
+				startRss / 1024 + " MB -> " + residentSetKilobytes() / 1024 + " MB");
 	}
 
-	private File extractResourceToTempFile(String resourcePath, String prefix, String suffix) throws IOException {
-		File tempFile = File.createTempFile(prefix, suffix);
-		tempFile.deleteOnExit();
+	/**
+	 * File name of a model variant: model.onnx for fp32, model_&lt;variant&gt;.onnx otherwise,
+	 * e.g. model_int8.onnx for a dynamically quantized model placed next to model.onnx.
+	 *
+	 * @param variant Variant name of letters, digits and underscores
+	 * @return The model file name
+	 */
+	static String modelFileName(String variant) {
+		if (!variant.matches("\\w+")) {
+			throw new IllegalArgumentException("Invalid model variant: " + variant);
+		}
+		return DEFAULT_VARIANT.equals(variant) ? "model.onnx" : "model_" + variant + ".onnx";
+	}
+
+	/**
+	 * Create the session pool from the first available model source: a previously written
+	 * optimized graph, the configured model file, or the model bytes on the classpath.
+	 * Files are opened by ONNX Runtime directly, and classpath bytes are passed to the sessions
+	 * in memory, so the model is never copied to a temporary file.
+	 *
+	 * @param modelFile File name of the selected variant
+	 */
+	private OrtSessionPool createSessionPool(String modelFile) throws IOException, OrtException {
+		Path optimizedModel = optimizedModelPath.map(Paths::get).orElse(null);
+		if (optimizedModel != null && !DEFAULT_VARIANT.equals(modelVariant)) {
+			// Each variant has its own optimized graph
+			optimizedModel = optimizedModel.resolveSibling(modelVariant + "-" + optimizedModel.getFileName());
+		}
+		if (optimizedModel != null && Files.isRegularFile(optimizedModel)) {
+			// The graph is already optimized, so the sessions skip the optimization passes
+			LOG.info("Loading optimized model from " + optimizedModel);
+			OrtSessionPool.Settings settings = new OrtSessionPool.Settings(intraOpThreads, interOpThreads,
+					executionMode, OrtSession.SessionOptions.OptLevel.NO_OPT, null);
+			String path = optimizedModel.toString();
+			return new OrtSessionPool(env, inferenceSessions, settings,
+					(environment, options) -> environment.createSession(path, options));
+		}
 
-		try (InputStream is = getClass().getResourceAsStream(resourcePath)) {
+		// Write the optimized graph on this boot if a cache file is configured
+		if (optimizedModel != null && optimizedModel.getParent() != null) {
+			Files.createDirectories(optimizedModel.getParent());
+		}
+		OrtSessionPool.Settings settings = new OrtSessionPool.Settings(intraOpThreads, interOpThreads,
+				executionMode, optimizationLevel, optimizedModel == null ? null : optimizedModel.toString());
+
+		if (modelPath.isPresent()) {
+			// Variants are looked up next to the configured fp32 model
+			Path configured = Paths.get(modelPath.get());
+			String path = DEFAULT_VARIANT.equals(modelVariant) ? configured.toString()
+					: configured.resolveSibling(modelFile).toString();
+			LOG.info("Loading model from " + path);
+			return new OrtSessionPool(env, inferenceSessions, settings,
+					(environment, options) -> environment.createSession(path, options));
+		}
+
+		String resource = MODEL_DIRECTORY + modelFile;
+		byte[] model;
+		try (InputStream is = getClass().getResourceAsStream(resource)) {
 			if (is == null) {
-				throw new IOException("Resource not found: " + resourcePath);
+				throw new IOException("Resource not found: " + resource);
 			}
-			Files.copy(is, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			model = is.readAllBytes();
 		}
+		LOG.info("Loading model from classpath resource " + resource + " (" + model.length + " bytes)");
+		return new OrtSessionPool(env, inferenceSessions, settings,
+				(environment, options) -> environment.createSession(model, options));
+	}
 
-		return tempFile;
+	/**
+	 * Resident set size of this process from /proc/self/status.
+	 *
+	 * @return RSS in kilobytes, or -1 where /proc is not available
+	 */
+	static long residentSetKilobytes() {
+		try {
+			for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+				if (line.startsWith("VmRSS:")) {
+					return Long.parseLong(line.replaceAll("[^0-9]", ""));
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			LOG.debug("Cannot read resident set size: " + e.getMessage());
+		}
+		return -1;
 	}
 
-	private void loadVocabulary() throws IOException {
-		LOG.info("Loading vocabulary");
-		tokenToId = new HashMap<>();
-		idToToken = new HashMap<>();
-
-		try (BufferedReader reader = new BufferedReader(
-				new InputStreamReader(getClass().getResourceAsStream("/models/all-MiniLM-L6-v2-onnx/vocab.txt")))) {
-			String line;
-			int id = 0;
-			while ((line = reader.readLine()) != null) {
-				tokenToId.put(line, id);
-				idToToken.put(id, line);
-				id++;
+	@PreDestroy
+	void close() {
+		if (sessionPool != null) {
+			sessionPool.close();
+		}
+		if (store != null) {
+			try {
+				store.close();
+			} catch (IOException e) {
+				LOG.error("Failed to close embedding store", e);
 			}
 		}
+	}
 
-		LOG.info("Vocabulary loaded: " + tokenToId.size() + " tokens");
+	private void loadTokenizer() throws IOException {
+		LOG.info("Loading tokenizer");
+		tokenizer = WordPieceTokenizer.fromTokenizerJson(MODEL_DIRECTORY + "tokenizer.json");
+		LOG.info("Tokenizer loaded: " + tokenizer.vocabularySize() + " tokens");
 	}
 
 	/**
 	 * Generate embeddings for a list of sentences.
+	 * Cached vectors are reused, the remaining texts are tokenized up front and scheduled into
+	 * length-sorted batches by {@link EmbeddingBatchScheduler}, so each batch is padded only to
+	 * texts of similar length.
 	 * 
 	 * @param sentenceTexts List of sentence texts
-	 * @return List of Sentence objects with vector embeddings
+	 * @return List of Sentence objects with vector embeddings, in input order
 	 */
 	public List<Sentence> generateEmbeddings(List<String> sentenceTexts) {
-		return sentenceTexts.stream()
-				.map(this::generateEmbedding)
-				.toList();
+		int n = sentenceTexts.size();
+		float[][] vectors = new float[n][];
+		EmbeddingKey[] keys = new EmbeddingKey[n];
+
+		// Look up cached vectors and collect the texts that still need inference
+		List<String> missingTexts = new ArrayList<>();
+		int[] missing = new int[n];
+		for (int i = 0; i < n; i++) {
+			if (cache != null || store != null) {
+				keys[i] = EmbeddingKey.of(sentenceTexts.get(i), vectorModelId);
+				float[] known = lookupVector(keys[i]);
+				if (known != null) {
+					vectors[i] = known;
+					continue;
+				}
+			}
+			missing[missingTexts.size()] = i;
+			missingTexts.add(sentenceTexts.get(i));
+		}
+
+		// Put the computed vectors back in document order
+		float[][] computed = embedTexts(missingTexts);
+		for (int i = 0; i < computed.length; i++) {
+			vectors[missing[i]] = computed[i];
+			cacheVector(keys[missing[i]], computed[i]);
+		}
+		LOG.debug("Computed " + computed.length + " of " + n + " embedding vectors");
+
+		List<Sentence> sentences = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			sentences.add(new Sentence(sentenceTexts.get(i), vectors[i]));
+		}
+		return sentences;
 	}
 
 	/**
@@ -128,141 +324,363 @@ public class EmbeddingService {
 	 * @return A Sentence object with the vector embedding
 	 */
 	public Sentence generateEmbedding(String text) {
-		double[] vector = embedText(text);
+		EmbeddingKey key = null;
+		if (cache != null || store != null) {
+			key = EmbeddingKey.of(text, vectorModelId);
+			float[] known = lookupVector(key);
+			if (known != null) {
+				return new Sentence(text, known);
+			}
+		}
+
+		float[] vector = embedTexts(List.of(text))[0];
+		cacheVector(key, vector);
 		return new Sentence(text, vector);
 	}
 
 	/**
-	 * Embed text using the all-MiniLM-L6-v2-onnx model.
+	 * Run the model on a list of texts.
+	 * Each text becomes one or more token windows of at most semsim.embedding.window.size tokens.
+	 * All windows are scheduled into batches together, and the windows of a long text are
+	 * combined by a token-weighted mean of their vectors, renormalized to unit length.
+	 *
+	 * @return One vector per text, in input order
 	 */
-	private double[] embedText(String text) {
-		try {
-			// Tokenize the input text
-			List<Integer> tokens = tokenize(text);
-
-			// Create input tensors
-			Map<String, OnnxTensor> inputs = createInputTensors(tokens);
-
-			// Run inference
-			OrtSession.Result result = session.run(inputs);
-
-			// Extract the last hidden state (embeddings)
-			// The model outputs a tensor of shape [1, sequence_length, hidden_size]
-			float[][][] lastHiddenState = (float[][][]) result.get(0).getValue();
-
-			// Mean pooling to get sentence embedding
-			double[] embedding = meanPooling(lastHiddenState[0], tokens.size());
-
-			// Normalize the embedding
-			normalize(embedding);
-
-			// Close the result to free resources
-			result.close();
-
-			// Close the input tensors
-			for (OnnxTensor tensor : inputs.values()) {
-				tensor.close();
+	private float[][] embedTexts(List<String> texts) {
+		int n = texts.size();
+		int windowContent = windowSize - 2;
+
+		// Tokenize the texts into one flat array of windows, each framed by [CLS] and [SEP]
+		long[] tokens = new long[Math.max(windowSize, n * 32)];
+		int[] windowOffsets = new int[Math.max(1, n)];
+		int[] windowCounts = new int[windowOffsets.length];
+		int[] windowOwners = new int[windowOffsets.length];
+		int[] windowsPerText = new int[n];
+		int windows = 0;
+		int used = 0;
+		for (int i = 0; i < n; i++) {
+			String text = texts.get(i);
+			long[] buffer;
+			int count;
+			if (chunkingEnabled) {
+				TokenIds ids = tokenizeWhole(tokenizer, text, this::tokenBuffer);
+				buffer = ids.buffer();
+				count = ids.count();
+			} else {
+				buffer = tokenBuffer(windowSize);
+				count = tokenizer.tokenize(text, buffer, windowSize);
+			}
+			int contentCount = count - 2;
+
+			int textWindows = windowCount(contentCount, windowContent, windowStride);
+			windowsPerText[i] = textWindows;
+			if (windows + textWindows > windowOffsets.length) {
+				int capacity = Math.max(windows + textWindows, windowOffsets.length * 2);
+				windowOffsets = Arrays.copyOf(windowOffsets, capacity);
+				windowCounts = Arrays.copyOf(windowCounts, capacity);
+				windowOwners = Arrays.copyOf(windowOwners, capacity);
+			}
+			for (int w = 0; w < textWindows; w++) {
+				int start = w * windowStride;
+				int length = Math.min(windowContent, contentCount - start);
+				if (used + length + 2 > tokens.length) {
+					tokens = Arrays.copyOf(tokens, Math.max(used + length + 2, tokens.length * 2));
+				}
+				tokens[used] = buffer[0];
+				System.arraycopy(buffer, 1 + start, tokens, used + 1, length);
+				tokens[used + 1 + length] = buffer[count - 1];
+				windowOffsets[windows] = used;
+				windowCounts[windows] = length + 2;
+				windowOwners[windows] = i;
+				windows++;
+				used += length + 2;
+			}
+		}
+		int[] tokenCounts = Arrays.copyOf(windowCounts, windows);
+
+		List<int[]> batches = new EmbeddingBatchScheduler(maxBatchTokens, batchSize).schedule(tokenCounts);
+		LOG.debug("Scheduled " + windows + " windows of " + n + " texts into " + batches.size() +
+				" batches with padding efficiency " +
+				String.format("%.3f", EmbeddingBatchScheduler.paddingEfficiency(tokenCounts, batches)));
+
+		// Run each batch, texts of a single window take its vector as is
+		float[][] vectors = new float[n][];
+		for (int[] batch : batches) {
+			float[][] batchVectors = embedBatch(batch, tokens, windowOffsets, tokenCounts);
+			for (int i = 0; i < batch.length; i++) {
+				int window = batch[i];
+				int owner = windowOwners[window];
+				if (windowsPerText[owner] == 1) {
+					vectors[owner] = batchVectors[i];
+					continue;
+				}
+				if (vectors[owner] == null) {
+					vectors[owner] = new float[VECTOR_SIZE];
+				}
+				float weight = tokenCounts[window] - 2;
+				for (int j = 0; j < VECTOR_SIZE; j++) {
+					vectors[owner][j] += weight * batchVectors[i][j];
+				}
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			if (windowsPerText[i] > 1) {
+				VectorMath.normalize(vectors[i]);
 			}
-
-			LOG.debug("Generated embedding vector for: " + text.substring(0, Math.min(20, text.length())) + "...");
-			return embedding;
-
-		} catch (Exception e) {
-			LOG.error("Error generating embedding", e);
-			// Return a zero vector in case of error
-			return new double[VECTOR_SIZE];
 		}
+		return vectors;
 	}
 
-	private List<Integer> tokenize(String text) {
-		// Simple tokenization for demonstration
-		// In a production system, you would use a proper tokenizer
-		List<Integer> tokens = new ArrayList<>();
+	/**
+	 * Token ids of a text, in the first count entries of a buffer.
+	 */
+	record TokenIds(long[] buffer, int count) {
+	}
 
-		// Add CLS token
-		tokens.add(tokenToId.getOrDefault("[CLS]", 101));
+	/**
+	 * Tokenize a whole text into [CLS] tokens... [SEP]. A text can have more tokens than characters,
+	 * e.g. Hangul syllables become several jamo pieces, so while the tokens fill the buffer, which
+	 * means they may have been cut, the text is tokenized again into a buffer twice as large.
+	 *
+	 * @param buffers Provides a buffer of at least the requested capacity
+	 */
+	static TokenIds tokenizeWhole(WordPieceTokenizer tokenizer, CharSequence text, IntFunction<long[]> buffers) {
+		long[] buffer = buffers.apply(text.length() + 2);
+		int count = tokenizer.tokenize(text, buffer, buffer.length);
+		while (count == buffer.length) {
+			buffer = buffers.apply(buffer.length * 2);
+			count = tokenizer.tokenize(text, buffer, buffer.length);
+		}
+		return new TokenIds(buffer, count);
+	}
 
-		// Split by space and add tokens
-		for (String word : text.split("\\s+")) {
-			// If word is in vocabulary, add it
-			// Otherwise, add unknown token
-			tokens.add(tokenToId.getOrDefault(word.toLowerCase(), tokenToId.getOrDefault("[UNK]", 100)));
+	/**
+	 * Number of windows covering a text, each window holding up to windowContent tokens and
+	 * starting stride tokens after the previous one. The last window ends at the end of the text.
+	 *
+	 * @param contentTokens Tokens of the text without [CLS] and [SEP]
+	 * @param windowContent Tokens per window without [CLS] and [SEP]
+	 * @param stride        Tokens between window starts
+	 */
+	static int windowCount(int contentTokens, int windowContent, int stride) {
+		if (contentTokens <= windowContent) {
+			return 1;
+		}
+		return (contentTokens - windowContent + stride - 1) / stride + 1;
+	}
 
-			// Check if we're approaching max sequence length
-			if (tokens.size() >= MAX_SEQ_LENGTH - 1) {
-				break;
+	/**
+	 * Per-thread token buffer of at least the given capacity.
+	 * Buffers for very long texts are not kept, so one huge text does not pin memory per thread.
+	 */
+	private long[] tokenBuffer(int capacity) {
+		long[] buffer = tokenBuffer.get();
+		if (buffer.length < capacity) {
+			buffer = new long[capacity];
+			if (capacity <= MAX_RETAINED_TOKEN_BUFFER) {
+				tokenBuffer.set(buffer);
 			}
 		}
-
-		// Add SEP token
-		tokens.add(tokenToId.getOrDefault("[SEP]", 102));
-
-		return tokens;
+		return buffer;
 	}
 
-	private Map<String, OnnxTensor> createInputTensors(List<Integer> tokens) throws OrtException {
-		Map<String, OnnxTensor> inputs = new HashMap<>();
-
-		// Create input_ids tensor
-		long[] inputIds = new long[tokens.size()];
-		for (int i = 0; i < tokens.size(); i++) {
-			inputIds[i] = tokens.get(i);
+	/**
+	 * Look up a previously computed vector, first in the cache and then in the persistent store.
+	 * Vectors found in the store are promoted into the cache.
+	 *
+	 * @return The vector, or null if it has to be computed
+	 */
+	private float[] lookupVector(EmbeddingKey key) {
+		if (cache != null) {
+			float[] cached = cache.get(key);
+			if (cached != null) {
+				return cached;
+			}
 		}
+		if (store != null) {
+			float[] stored = store.get(key);
+			if (stored != null) {
+				if (cache != null) {
+					cache.put(key, stored);
+				}
+				return stored;
+			}
+		}
+		return null;
+	}
 
-		// Create attention_mask tensor
-		long[] attentionMask = new long[tokens.size()];
-		Arrays.fill(attentionMask, 1);
+	/**
+	 * Store a vector in the cache and the persistent store.
+	 * Zero vectors from failed inference are not kept.
+	 */
+	private void cacheVector(EmbeddingKey key, float[] vector) {
+		if (key == null) {
+			return;
+		}
+		boolean zero = true;
+		for (float v : vector) {
+			zero &= v == 0f;
+		}
+		if (zero) {
+			return;
+		}
+		if (cache != null) {
+			cache.put(key, vector);
+		}
+		if (store != null) {
+			try {
+				store.put(key, vector);
+			} catch (IOException e) {
+				LOG.error("Failed to write vector to the embedding store", e);
+			}
+		}
+	}
 
-		// Create token_type_ids tensor
-		long[] tokenTypeIds = new long[tokens.size()];
-		Arrays.fill(tokenTypeIds, 0);
+	/**
+	 * Embed a batch of tokenized texts with a single inference call.
+	 * All texts are padded to the longest one in the batch, and the attention mask
+	 * keeps the padding out of both the attention and the mean pooling.
+	 *
+	 * @param batch        Indices of the texts in this batch
+	 * @param tokens       Token ids of all texts, back to back
+	 * @param tokenOffsets Offset of each text in tokens
+	 * @param tokenCounts  Token count of each text
+	 */
+	private float[][] embedBatch(int[] batch, long[] tokens, int[] tokenOffsets, int[] tokenCounts) {
+		int maxLength = 0;
+		for (int index : batch) {
+			maxLength = Math.max(maxLength, tokenCounts[index]);
+		}
 
-		// Create ONNX tensors with correct shapes
-		// The model expects tensors of shape [batch_size, sequence_length]
-		// where batch_size is 1 for a single sentence
-		OnnxTensor inputIdsTensor = OnnxTensor.createTensor(env, new long[][] { inputIds });
-		OnnxTensor attentionMaskTensor = OnnxTensor.createTensor(env, new long[][] { attentionMask });
-		OnnxTensor tokenTypeIdsTensor = OnnxTensor.createTensor(env, new long[][] { tokenTypeIds });
+		float[][] embeddings = new float[batch.length][VECTOR_SIZE];
+		try {
+			InferenceBuffers buffers = inferenceBuffers.get();
+			buffers.prepare(batch.length, maxLength);
+			long padId = tokenizer.getPadId();
+			for (int i = 0; i < batch.length; i++) {
+				buffers.setRow(i, tokens, tokenOffsets[batch[i]], tokenCounts[batch[i]], padId);
+			}
+			runInference(buffers, embeddings);
 
-		// Add tensors to input map
-		inputs.put("input_ids", inputIdsTensor);
-		inputs.put("attention_mask", attentionMaskTensor);
-		inputs.put("token_type_ids", tokenTypeIdsTensor);
+			LOG.debug("Generated " + batch.length + " embedding vectors in one batch of length " + maxLength);
+			return embeddings;
 
-		return inputs;
+		} catch (Exception e) {
+			LOG.error("Error generating embeddings for batch of " + batch.length + " texts", e);
+			// Return zero vectors in case of error, same as for a single text
+			return new float[batch.length][VECTOR_SIZE];
+		}
 	}
 
-	private double[] meanPooling(float[][] lastHiddenState, int tokenCount) {
-		double[] meanPooled = new double[VECTOR_SIZE];
+	/**
+	 * Run the model on the prepared input buffers and pool each row into its target vector.
+	 * The input tensors are created over the reusable direct buffers without copying. The output
+	 * is copied once, by {@link OnnxTensor#getFloatBuffer()}, into a single FloatBuffer instead of
+	 * one Java array per token.
+	 */
+	private void runInference(InferenceBuffers buffers, float[][] targets) throws OrtException {
+		long[] shape = { buffers.rows, buffers.length };
+		try (OnnxTensor inputIds = OnnxTensor.createTensor(env, buffers.inputIds, shape);
+				OnnxTensor attentionMask = OnnxTensor.createTensor(env, buffers.attentionMask, shape);
+				OnnxTensor tokenTypeIds = OnnxTensor.createTensor(env, buffers.tokenTypeIds, shape);
+				OrtSession.Result result = sessionPool.run(Map.of(
+						"input_ids", inputIds,
+						"attention_mask", attentionMask,
+						"token_type_ids", tokenTypeIds))) {
+
+			// The model outputs a tensor of shape [batch_size, max_length, hidden_size]
+			FloatBuffer lastHiddenState = ((OnnxTensor) result.get(0)).getFloatBuffer();
+			int rowSize = buffers.length * VECTOR_SIZE;
+			for (int i = 0; i < buffers.rows; i++) {
+				poolNormalized(lastHiddenState, i * rowSize, buffers.tokenCounts[i], buffers.sum, targets[i]);
+			}
+		}
+	}
 
-		// Sum up the embeddings for all tokens (excluding padding)
-		for (int i = 0; i < tokenCount; i++) {
+	/**
+	 * Masked mean pooling and L2 normalization in one pass over one row of the model output.
+	 * The attention mask of a row is a prefix of tokenCount ones, so only those positions are
+	 * read. The 1/tokenCount factor of the mean cancels out in the normalization, so the token
+	 * sums are normalized directly.
+	 *
+	 * @param hiddenStates Model output of shape [batch_size, max_length, hidden_size]
+	 * @param rowOffset    Offset of the row in hiddenStates
+	 * @param tokenCount   Number of real tokens in the row
+	 * @param sum          Scratch accumulator of VECTOR_SIZE doubles
+	 * @param target       Receives the unit-length embedding, or zeros for an empty row
+	 */
+	static void poolNormalized(FloatBuffer hiddenStates, int rowOffset, int tokenCount, double[] sum,
+			float[] target) {
+		Arrays.fill(sum, 0.0);
+		for (int t = 0; t < tokenCount; t++) {
+			int base = rowOffset + t * VECTOR_SIZE;
 			for (int j = 0; j < VECTOR_SIZE; j++) {
-				meanPooled[j] += lastHiddenState[i][j];
+				sum[j] += hiddenStates.get(base + j);
 			}
 		}
 
-		// Divide by token count to get mean
+		double magnitude = 0.0;
 		for (int j = 0; j < VECTOR_SIZE; j++) {
-			meanPooled[j] /= tokenCount;
+			magnitude += sum[j] * sum[j];
+		}
+		double scale = magnitude > 0 ? 1.0 / Math.sqrt(magnitude) : 0.0;
+		for (int j = 0; j < VECTOR_SIZE; j++) {
+			target[j] = (float) (sum[j] * scale);
 		}
-
-		return meanPooled;
 	}
 
-	private void normalize(double[] vector) {
-		// Calculate magnitude
-		double magnitude = 0.0;
-		for (double v : vector) {
-			magnitude += v * v;
+	/**
+	 * Per-thread input buffers for inference, reused across calls.
+	 * The buffers are direct and in native order so ONNX Runtime uses them without copying,
+	 * and they only grow, so steady-state inference allocates no input arrays.
+	 */
+	private static final class InferenceBuffers {
+		LongBuffer inputIds = allocate(0);
+		LongBuffer attentionMask = allocate(0);
+		LongBuffer tokenTypeIds = allocate(0);
+		int[] tokenCounts = new int[0];
+		final double[] sum = new double[VECTOR_SIZE];
+		int rows;
+		int length;
+
+		/**
+		 * Size the buffers for a [rows, length] input.
+		 */
+		void prepare(int rows, int length) {
+			int elements = rows * length;
+			if (inputIds.capacity() < elements) {
+				int capacity = Math.max(elements, inputIds.capacity() * 2);
+				inputIds = allocate(capacity);
+				attentionMask = allocate(capacity);
+				// Token type ids are all zero, which is what a fresh direct buffer holds
+				tokenTypeIds = allocate(capacity);
+			}
+			if (tokenCounts.length < rows) {
+				tokenCounts = new int[Math.max(rows, tokenCounts.length * 2)];
+			}
+			// ONNX Runtime expects exactly the tensor's elements between position and limit
+			inputIds.clear().limit(elements);
+			attentionMask.clear().limit(elements);
+			tokenTypeIds.clear().limit(elements);
+			this.rows = rows;
+			this.length = length;
 		}
-		magnitude = Math.sqrt(magnitude);
 
-		// Normalize
-		if (magnitude > 0) {
-			for (int i = 0; i < vector.length; i++) {
-				vector[i] /= magnitude;
+		/**
+		 * Write one text into its row, padding it with [PAD] and a zero attention mask.
+		 */
+		void setRow(int row, long[] tokens, int offset, int count, long padId) {
+			int base = row * length;
+			for (int j = 0; j < length; j++) {
+				boolean real = j < count;
+				inputIds.put(base + j, real ? tokens[offset + j] : padId);
+				attentionMask.put(base + j, real ? 1 : 0);
 			}
+			tokenCounts[row] = count;
+		}
+
+		private static LongBuffer allocate(int elements) {
+			return ByteBuffer.allocateDirect(elements * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
 		}
 	}
 
@@ -273,28 +691,7 @@ public class EmbeddingService {
 	 * @param vector2 Second vector
 	 * @return Cosine similarity value (between -1 and 1)
 	 */
-	public double calculateCosineSimilarity(double[] vector1, double[] vector2) {
-		if (vector1.length != vector2.length) {
-			throw new IllegalArgumentException("Vectors must have the same dimensions");
-		}
-
-		double dotProduct = 0.0;
-		double magnitude1 = 0.0;
-		double magnitude2 = 0.0;
-
-		for (int i = 0; i < vector1.length; i++) {
-			dotProduct += vector1[i] * vector2[i];
-			magnitude1 += vector1[i] * vector1[i];
-			magnitude2 += vector2[i] * vector2[i];
-		}
-
-		magnitude1 = Math.sqrt(magnitude1);
-		magnitude2 = Math.sqrt(magnitude2);
-
-		if (magnitude1 == 0 || magnitude2 == 0) {
-			return 0.0; // Handle division by zero
-		}
-
-		return dotProduct / (magnitude1 * magnitude2);
+	public double calculateCosineSimilarity(float[] vector1, float[] vector2) {
+		return VectorMath.cosine(vector1, vector2);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,260 @@
+package org.acme.semsim.service;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jboss.logging.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Append-only, memory-mapped file of embedding vectors that survives restarts.
+ * <p>
+ * The file holds a fixed header followed by fixed-width records of an {@link EmbeddingKey}
+ * and a float32 vector. The file is mapped in regions and vectors are read straight from the
+ * mapping, so only a primitive hash index of the keys lives on the heap. On open, the index is
+ * rebuilt by reading the 16 key bytes of every record.
+ */
+public class EmbeddingStore implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(EmbeddingStore.class);
+
+	private static final int MAGIC = 0x53454D53; // "SEMS"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 64;
+	private static final int COUNT_OFFSET = 24;
+	private static final long DEFAULT_REGION_BYTES = 64L << 20;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private final int dimensions;
+	private final int recordBytes;
+	private final int recordsPerRegion;
+	private final List<MappedByteBuffer> regions = new ArrayList<>();
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// Open-addressing index from key to record number, -1 marks an empty slot
+	private long[] indexHigh;
+	private long[] indexLow;
+	private int[] indexRecords;
+	private int recordCount;
+
+	/**
+	 * Open or create a store.
+	 *
+	 * @param path       File holding the store
+	 * @param modelId    Model identifier, a store written by another model is rejected
+	 * @param dimensions Vector dimensions
+	 * @throws IOException if the file cannot be opened or belongs to another model
+	 */
+	public EmbeddingStore(Path path, String modelId, int dimensions) throws IOException {
+		this(path, modelId, dimensions, DEFAULT_REGION_BYTES);
+	}
+
+	EmbeddingStore(Path path, String modelId, int dimensions, long regionBytes) throws IOException {
+		this.dimensions = dimensions;
+		this.recordBytes = 16 + 4 * dimensions;
+		this.recordsPerRegion = (int) Math.max(1, regionBytes / recordBytes);
+
+		if (path.getParent() != null) {
+			Files.createDirectories(path.getParent());
+		}
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			boolean created = channel.size() == 0;
+			header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			long modelHash = ByteBuffer.wrap(DigestUtils.sha256(modelId.getBytes(StandardCharsets.UTF_8))).getLong();
+
+			if (created) {
+				header.putInt(0, MAGIC);
+				header.putInt(4, VERSION);
+				header.putInt(8, dimensions);
+				header.putLong(16, modelHash);
+				header.putLong(COUNT_OFFSET, 0);
+				header.force();
+			} else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException("Not an embedding store: " + path);
+			} else if (header.getInt(8) != dimensions || header.getLong(16) != modelHash) {
+				throw new IOException("Embedding store " + path + " was written by another model or dimension");
+			}
+
+			recordCount = (int) header.getLong(COUNT_OFFSET);
+			rebuildIndex();
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		LOG.info("Opened embedding store " + path + " with " + recordCount + " vectors");
+	}
+
+	private void rebuildIndex() throws IOException {
+		allocateIndex(Math.max(1024, recordCount * 2));
+		for (int record = 0; record < recordCount; record++) {
+			MappedByteBuffer region = region(record / recordsPerRegion);
+			int offset = (record % recordsPerRegion) * recordBytes;
+			insert(region.getLong(offset), region.getLong(offset + 8), record);
+		}
+	}
+
+	/**
+	 * Zero-copy view of a stored vector.
+	 *
+	 * @return A read-only view into the mapped file, or null if the key is not stored
+	 */
+	public FloatBuffer view(EmbeddingKey key) {
+		lock.readLock().lock();
+		try {
+			int record = find(key.high(), key.low());
+			if (record < 0) {
+				return null;
+			}
+			MappedByteBuffer region = regions.get(record / recordsPerRegion);
+			int offset = (record % recordsPerRegion) * recordBytes + 16;
+			return region.slice(offset, 4 * dimensions).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer()
+					.asReadOnlyBuffer();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Copy a stored vector out of the mapped file.
+	 *
+	 * @return The vector, or null if the key is not stored
+	 */
+	public float[] get(EmbeddingKey key) {
+		FloatBuffer view = view(key);
+		if (view == null) {
+			return null;
+		}
+		float[] vector = new float[dimensions];
+		view.get(vector);
+		return vector;
+	}
+
+	/**
+	 * Append a vector unless its key is already stored.
+	 */
+	public void put(EmbeddingKey key, float[] vector) throws IOException {
+		if (vector.length != dimensions) {
+			throw new IllegalArgumentException("Expected " + dimensions + " dimensions but got " + vector.length);
+		}
+		lock.writeLock().lock();
+		try {
+			if (find(key.high(), key.low()) >= 0) {
+				return;
+			}
+			int record = recordCount;
+			MappedByteBuffer region = region(record / recordsPerRegion);
+			int offset = (record % recordsPerRegion) * recordBytes;
+			region.putLong(offset, key.high());
+			region.putLong(offset + 8, key.low());
+			for (int i = 0; i < dimensions; i++) {
+				region.putFloat(offset + 16 + 4 * i, vector[i]);
+			}
+
+			// Publish the record only after it is fully written
+			recordCount++;
+			header.putLong(COUNT_OFFSET, recordCount);
+			insert(key.high(), key.low(), record);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return recordCount;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Flush written records to disk.
+	 */
+	public void flush() {
+		lock.writeLock().lock();
+		try {
+			for (MappedByteBuffer region : regions) {
+				region.force();
+			}
+			header.force();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		channel.close();
+	}
+
+	private MappedByteBuffer region(int regionIndex) throws IOException {
+		while (regions.size() <= regionIndex) {
+			long position = HEADER_BYTES + (long) regions.size() * recordsPerRegion * recordBytes;
+			MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, position,
+					(long) recordsPerRegion * recordBytes);
+			region.order(ByteOrder.LITTLE_ENDIAN);
+			regions.add(region);
+		}
+		return regions.get(regionIndex);
+	}
+
+	private void allocateIndex(int capacity) {
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		indexHigh = new long[size];
+		indexLow = new long[size];
+		indexRecords = new int[size];
+		Arrays.fill(indexRecords, -1);
+	}
+
+	private int find(long high, long low) {
+		int mask = indexRecords.length - 1;
+		int slot = (int) (low ^ (low >>> 32)) & mask;
+		while (indexRecords[slot] >= 0) {
+			if (indexHigh[slot] == high && indexLow[slot] == low) {
+				return indexRecords[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void insert(long high, long low, int record) {
+		if ((record + 1) * 2 > indexRecords.length) {
+			long[] oldHigh = indexHigh;
+			long[] oldLow = indexLow;
+			int[] oldRecords = indexRecords;
+			allocateIndex(oldRecords.length * 2);
+			for (int i = 0; i < oldRecords.length; i++) {
+				if (oldRecords[i] >= 0) {
+					insert(oldHigh[i], oldLow[i], oldRecords[i]);
+				}
+			}
+		}
+		int mask = indexRecords.length - 1;
+		int slot = (int) (low ^ (low >>> 32)) & mask;
+		while (indexRecords[slot] >= 0) {
+			slot = (slot + 1) & mask;
+		}
+		indexHigh[slot] = high;
+		indexLow[slot] = low;
+		indexRecords[slot] = record;
+	}
+}
@@ -1,15 +1,20 @@
 package org.acme.semsim.service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
-import jakarta.inject.Inject;
+import org.acme.semsim.dto.GroupHierarchy;
+import org.acme.semsim.model.NeighbourGraph;
 import org.acme.semsim.model.Sentence;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Service for grouping similar sentences based on their vector embeddings.
@@ -19,12 +24,87 @@ public class GroupingService {
 
 	private static final Logger LOG = Logger.getLogger(GroupingService.class);
 
-	@Inject
-	EmbeddingService embeddingService;
+	/** Rows resolved per call to the similarity engine */
+	private static final int ROW_BLOCK = 64;
+
+	/**
+	 * How similar sentences are found. SCALAR and BLOCKED produce the same groups, HNSW and LSH may
+	 * miss some similar pairs in exchange for avoiding most exact similarity computations.
+	 */
+	public enum Strategy {
+		/** One cosine similarity call per pair */
+		SCALAR,
+		/** Packed unit-vector matrix with a cache-blocked dot product kernel */
+		BLOCKED,
+		/** Approximate neighbour search on an {@link HnswIndex} */
+		HNSW,
+		/** Exact checks of the candidate pairs of a {@link RandomProjectionLsh} only */
+		LSH,
+		/** BLOCKED below the ANN size cutoff, HNSW from the cutoff on */
+		AUTO
+	}
 
 	@ConfigProperty(name = "semsim.similarity.defaultThreshold")
 	double similarityThreshold;
 
+	@ConfigProperty(name = "semsim.grouping.strategy", defaultValue = "AUTO")
+	Strategy strategy;
+
+	@ConfigProperty(name = "semsim.grouping.ann.cutoff", defaultValue = "100000")
+	int annCutoff;
+
+	@ConfigProperty(name = "semsim.grouping.ann.m", defaultValue = "16")
+	int annM;
+
+	@ConfigProperty(name = "semsim.grouping.ann.efConstruction", defaultValue = "100")
+	int annEfConstruction;
+
+	@ConfigProperty(name = "semsim.grouping.ann.efSearch", defaultValue = "64")
+	int annEfSearch;
+
+	@ConfigProperty(name = "semsim.grouping.ann.recallSample", defaultValue = "50")
+	int annRecallSample;
+
+	@ConfigProperty(name = "semsim.grouping.lsh.candidates", defaultValue = "HAMMING")
+	RandomProjectionLsh.Candidates lshCandidates;
+
+	@ConfigProperty(name = "semsim.grouping.lsh.bands", defaultValue = "16")
+	int lshBands;
+
+	@ConfigProperty(name = "semsim.grouping.lsh.rows", defaultValue = "8")
+	int lshRows;
+
+	@ConfigProperty(name = "semsim.grouping.graph.floor", defaultValue = "0.5")
+	double graphFloor;
+
+	@ConfigProperty(name = "semsim.grouping.graph.maxEdges", defaultValue = "5000000")
+	int graphMaxEdges;
+
+	@ConfigProperty(name = "semsim.grouping.parallelism", defaultValue = "0")
+	int parallelism;
+
+	private ForkJoinPool pool;
+
+	@PostConstruct
+	void initialize() {
+		int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+		if (threads > 1) {
+			LOG.info("Initializing grouping pool with " + threads + " threads");
+			pool = new ForkJoinPool(threads);
+		}
+	}
+
+	@PreDestroy
+	void shutdown() {
+		if (pool != null) {
+			pool.shutdownNow();
+		}
+	}
+
+	public double getSimilarityThreshold() {
+		return similarityThreshold;
+	}
+
 	/**
 	 * Group similar sentences based on cosine similarity.
 	 * 
@@ -38,13 +118,43 @@ public class GroupingService {
 
 	/**
 	 * Group similar sentences based on cosine similarity using a custom threshold.
+	 * Each sentence is compared once, however often its text occurs, and appears in its group
+	 * once per occurrence. A text occurring several times forms a group even without similar texts.
 	 * 
 	 * @param sentences List of sentences with their vector embeddings
 	 * @param threshold Custom similarity threshold to use (between 0.0 and 1.0)
 	 * @return List of lists of similar sentences (groups)
 	 */
 	public List<List<String>> group(List<Sentence> sentences, double threshold) {
-		LOG.debug("Grouping " + sentences.size() + " sentences with similarity threshold " + threshold);
+		return group(sentences, threshold, strategy);
+	}
+
+	/**
+	 * Group similar sentences with the given strategy.
+	 */
+	List<List<String>> group(List<Sentence> sentences, double threshold, Strategy strategy) {
+		return group(sentences, threshold, strategy, pool);
+	}
+
+	/**
+	 * Group similar sentences with the given strategy, computing blocked similarities on the given pool.
+	 * The groups do not depend on the pool.
+	 */
+	List<List<String>> group(List<Sentence> sentences, double threshold, Strategy strategy, ForkJoinPool pool) {
+		if (strategy == Strategy.AUTO) {
+			strategy = sentences.size() >= annCutoff ? Strategy.HNSW : Strategy.BLOCKED;
+		}
+		LOG.debug("Grouping " + sentences.size() + " sentences with similarity threshold " + threshold +
+				" using the " + strategy + " strategy");
+		if (strategy == Strategy.BLOCKED) {
+			return groupBlocked(sentences, threshold, pool);
+		}
+		if (strategy == Strategy.HNSW) {
+			return groupHnsw(sentences, threshold);
+		}
+		if (strategy == Strategy.LSH) {
+			return groupLsh(sentences, threshold);
+		}
 
 		List<List<String>> groups = new ArrayList<>();
 		Set<Integer> processedIndices = new HashSet<>();
@@ -61,7 +171,7 @@ public class GroupingService {
 			//  3. average similarity score for the group.
 			//  4. some kind of statistical score telling about how distributed the similarity scores are (e.g. a high or low score would mean very similar sentences within that group)
 			List<String> similarSentences = new ArrayList<>();
-			similarSentences.add(currentSentence.getText());
+			addOccurrences(similarSentences, currentSentence);
 			processedIndices.add(i);
 
 			// Find similar sentences
@@ -71,11 +181,10 @@ public class GroupingService {
 				}
 
 				Sentence candidateSentence = sentences.get(j);
-				double similarity = embeddingService.calculateCosineSimilarity(
-						currentSentence.getVector(), candidateSentence.getVector());
+				float similarity = VectorMath.cosine(currentSentence.getVector(), candidateSentence.getVector());
 
 				if (similarity >= threshold) {
-					similarSentences.add(candidateSentence.getText());
+					addOccurrences(similarSentences, candidateSentence);
 					processedIndices.add(j);
 					LOG.debug("Found similar sentences with similarity " + similarity + ": " +
 							truncateText(currentSentence.getText()) + " and " +
@@ -93,6 +202,314 @@ public class GroupingService {
 		return groups;
 	}
 
+	/**
+	 * Collect all pairs above the configured graph floor, or above the threshold if it is lower,
+	 * so the sentences can be regrouped at other thresholds with {@link #group(List, NeighbourGraph, double)}.
+	 * The pairs come from an exact pass, so no graph is built when the strategy for this many
+	 * sentences is approximate. Neither is one kept when it would exceed the configured number of edges.
+	 *
+	 * @param sentences List of sentences with their vector embeddings
+	 * @param threshold Threshold the sentences are grouped at first
+	 * @return The graph, or null if none was built
+	 */
+	public NeighbourGraph buildNeighbourGraph(List<Sentence> sentences, double threshold) {
+		boolean exact = strategy == Strategy.SCALAR || strategy == Strategy.BLOCKED ||
+				strategy == Strategy.AUTO && sentences.size() < annCutoff;
+		if (!exact) {
+			LOG.debug("No neighbour graph for " + sentences.size() + " sentences with the " + strategy + " strategy");
+			return null;
+		}
+
+		double floor = Math.min(graphFloor, threshold);
+		long start = System.nanoTime();
+		SimilarityMatrix matrix = new SimilarityMatrix(sentences);
+		int n = matrix.size();
+		int[] rowOffsets = new int[n + 1];
+		int[] columns = new int[Math.max(16, n)];
+		float[] scores = new float[columns.length];
+		int edges = 0;
+		float[][] blockScores = new float[ROW_BLOCK][];
+
+		for (int blockStart = 0; blockStart < n; blockStart += ROW_BLOCK) {
+			int blockEnd = Math.min(n, blockStart + ROW_BLOCK);
+			int[][] neighbours = matrix.rowsAbove(blockStart, blockEnd, floor, null, pool, blockScores);
+			for (int i = blockStart; i < blockEnd; i++) {
+				int[] rowColumns = neighbours[i - blockStart];
+				if ((long) edges + rowColumns.length > graphMaxEdges) {
+					LOG.info("Not keeping a neighbour graph, more than " + graphMaxEdges +
+							" pairs are above the floor of " + floor);
+					return null;
+				}
+				if (edges + rowColumns.length > columns.length) {
+					int capacity = (int) Math.min(graphMaxEdges, Math.max(2L * columns.length, edges + rowColumns.length));
+					columns = Arrays.copyOf(columns, capacity);
+					scores = Arrays.copyOf(scores, capacity);
+				}
+				System.arraycopy(rowColumns, 0, columns, edges, rowColumns.length);
+				System.arraycopy(blockScores[i - blockStart], 0, scores, edges, rowColumns.length);
+				edges += rowColumns.length;
+				rowOffsets[i + 1] = edges;
+			}
+		}
+
+		NeighbourGraph graph = new NeighbourGraph(floor, rowOffsets, Arrays.copyOf(columns, edges),
+				Arrays.copyOf(scores, edges));
+		LOG.info("Built neighbour graph of " + n + " sentences with " + edges + " pairs above " + floor +
+				" in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+		return graph;
+	}
+
+	/**
+	 * The greedy grouping of {@link #group(List, double)} on the pairs of a neighbour graph, without
+	 * computing any similarity. Gives the same groups as the exact strategies.
+	 *
+	 * @param sentences The sentences the graph was built from
+	 * @param graph     Pairs above the graph's floor
+	 * @param threshold Similarity threshold, at least the graph's floor
+	 * @return List of lists of similar sentences (groups)
+	 */
+	public List<List<String>> group(List<Sentence> sentences, NeighbourGraph graph, double threshold) {
+		if (threshold < graph.getFloor()) {
+			throw new IllegalArgumentException("Threshold " + threshold + " is below the graph floor " + graph.getFloor());
+		}
+		return groupGreedy(sentences, (i, processed) -> {
+			int[] neighbours = new int[graph.rowEnd(i) - graph.rowStart(i)];
+			int count = 0;
+			for (int position = graph.rowStart(i); position < graph.rowEnd(i); position++) {
+				if (graph.score(position) >= threshold) {
+					neighbours[count++] = graph.column(position);
+				}
+			}
+			return Arrays.copyOf(neighbours, count);
+		});
+	}
+
+	/**
+	 * The single-linkage hierarchy of the sentences over the pairs of a neighbour graph, computed
+	 * once for all thresholds: Kruskal's algorithm on the pairs sorted by descending similarity,
+	 * keeping the pairs that join two clusters of a union-find. This takes O(E log E) for E pairs
+	 * and yields at most n - 1 merges.
+	 * <p>
+	 * Single-linkage clusters are the connected components of the pairs above a threshold. They can
+	 * be larger than the greedy groups, which only take the direct neighbours of each seed.
+	 *
+	 * @param sentences The sentences the graph was built from
+	 * @param graph     Pairs above the graph's floor
+	 * @return The merges, most similar first
+	 */
+	public GroupHierarchy hierarchy(List<Sentence> sentences, NeighbourGraph graph) {
+		long start = System.nanoTime();
+		int n = graph.getRowCount();
+		int edges = graph.getEdgeCount();
+
+		// Scores are at least the floor and so not negative, their bits sort like the floats
+		long[] keys = new long[edges];
+		int[] rowOfEdge = new int[edges];
+		for (int row = 0; row < n; row++) {
+			for (int position = graph.rowStart(row); position < graph.rowEnd(row); position++) {
+				keys[position] = (long) Float.floatToIntBits(graph.score(position)) << 32 | position;
+				rowOfEdge[position] = row;
+			}
+		}
+		Arrays.sort(keys);
+
+		int[] parent = new int[n];
+		int[] clusterSize = new int[n];
+		for (int i = 0; i < n; i++) {
+			parent[i] = i;
+			clusterSize[i] = 1;
+		}
+		int[] from = new int[Math.max(0, n - 1)];
+		int[] to = new int[from.length];
+		float[] scores = new float[from.length];
+		int merges = 0;
+		for (int k = edges - 1; k >= 0 && merges < from.length; k--) {
+			int position = (int) keys[k];
+			int a = rowOfEdge[position];
+			int b = graph.column(position);
+			int rootA = find(parent, a);
+			int rootB = find(parent, b);
+			if (rootA == rootB) {
+				continue;
+			}
+			if (clusterSize[rootA] < clusterSize[rootB]) {
+				int swap = rootA;
+				rootA = rootB;
+				rootB = swap;
+			}
+			parent[rootB] = rootA;
+			clusterSize[rootA] += clusterSize[rootB];
+			from[merges] = a;
+			to[merges] = b;
+			scores[merges] = graph.score(position);
+			merges++;
+		}
+
+		List<String> texts = new ArrayList<>(n);
+		List<List<String>> semids = new ArrayList<>(n);
+		for (Sentence sentence : sentences) {
+			texts.add(sentence.getText());
+			semids.add(sentence.getSemids());
+		}
+		LOG.info("Built single-linkage hierarchy of " + n + " sentences with " + merges + " merges from " +
+				edges + " pairs in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+		return new GroupHierarchy(graph.getFloor(), texts, semids, Arrays.copyOf(from, merges),
+				Arrays.copyOf(to, merges), Arrays.copyOf(scores, merges));
+	}
+
+	/**
+	 * Root of an element in a union-find, halving the path on the way.
+	 */
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * The greedy grouping of {@link #group(List, double)} on a {@link SimilarityMatrix}.
+	 * When sentence i seeds a group, every sentence before it is already processed, so only
+	 * the similarities to later sentences are needed. These are computed for a block of rows at a
+	 * time, skipping rows that earlier groups already took, and the block is then resolved in order.
+	 * Only the similarity tiles run in parallel, the resolution stays sequential, so the groups and
+	 * their order are the same for any number of threads.
+	 */
+	private List<List<String>> groupBlocked(List<Sentence> sentences, double threshold, ForkJoinPool pool) {
+		List<List<String>> groups = new ArrayList<>();
+		if (sentences.isEmpty()) {
+			return groups;
+		}
+
+		SimilarityMatrix matrix = new SimilarityMatrix(sentences);
+		int n = matrix.size();
+		boolean[] processed = new boolean[n];
+
+		for (int blockStart = 0; blockStart < n; blockStart += ROW_BLOCK) {
+			int blockEnd = Math.min(n, blockStart + ROW_BLOCK);
+			int[][] neighbours = matrix.rowsAbove(blockStart, blockEnd, threshold, processed, pool);
+
+			for (int i = blockStart; i < blockEnd; i++) {
+				if (processed[i]) {
+					continue;
+				}
+				processed[i] = true;
+				List<String> similarSentences = new ArrayList<>();
+				addOccurrences(similarSentences, sentences.get(i));
+				for (int j : neighbours[i - blockStart]) {
+					if (!processed[j]) {
+						processed[j] = true;
+						addOccurrences(similarSentences, sentences.get(j));
+					}
+				}
+				// Only add groups with more than one sentence
+				if (similarSentences.size() > 1) {
+					groups.add(similarSentences);
+				}
+			}
+		}
+
+		LOG.info("Created " + groups.size() + " similarity groups");
+		return groups;
+	}
+
+	/**
+	 * The greedy grouping of {@link #group(List, double)} on approximate neighbours from an
+	 * {@link HnswIndex}. Seeds are visited in the same order and take their unprocessed neighbours
+	 * above the threshold, so the groups equal the exact ones wherever the index finds every
+	 * neighbour. The neighbour recall against an exact scan is estimated on a sample and logged.
+	 */
+	private List<List<String>> groupHnsw(List<Sentence> sentences, double threshold) {
+		if (sentences.isEmpty()) {
+			return new ArrayList<>();
+		}
+
+		long start = System.nanoTime();
+		SimilarityMatrix matrix = new SimilarityMatrix(sentences);
+		HnswIndex index = new HnswIndex(matrix, annM, annEfConstruction, 42);
+		LOG.info("Built HNSW index over " + index.size() + " sentences in " +
+				(System.nanoTime() - start) / 1_000_000 + " ms");
+
+		if (annRecallSample > 0) {
+			double recall = index.estimateRecall(threshold, annEfSearch, annRecallSample);
+			LOG.info("HNSW neighbour recall against exact search: " + String.format("%.4f", recall) +
+					" on " + Math.min(annRecallSample, index.size()) + " sampled sentences");
+		}
+
+		return groupGreedy(sentences, (i, processed) -> index.neighboursAbove(i, threshold, annEfSearch));
+	}
+
+	/**
+	 * The greedy grouping of {@link #group(List, double)} on the candidate pairs of a
+	 * {@link RandomProjectionLsh}. Only candidates are checked exactly, so the groups equal the exact
+	 * ones wherever every similar pair is a candidate. The recall is estimated and logged like for HNSW.
+	 */
+	private List<List<String>> groupLsh(List<Sentence> sentences, double threshold) {
+		if (sentences.isEmpty()) {
+			return new ArrayList<>();
+		}
+
+		long start = System.nanoTime();
+		SimilarityMatrix matrix = new SimilarityMatrix(sentences);
+		RandomProjectionLsh lsh = new RandomProjectionLsh(matrix, lshBands, lshRows, 42);
+		LOG.info("Computed " + lsh.bits() + " bit signatures of " + lsh.size() + " sentences in " +
+				(System.nanoTime() - start) / 1_000_000 + " ms");
+
+		if (annRecallSample > 0) {
+			double recall = lsh.estimateRecall(threshold, lshCandidates, annRecallSample);
+			LOG.info("LSH " + lshCandidates + " neighbour recall against exact search: " +
+					String.format("%.4f", recall) + " on " + Math.min(annRecallSample, lsh.size()) +
+					" sampled sentences");
+		}
+
+		return groupGreedy(sentences, (i, processed) -> lsh.laterNeighboursAbove(i, threshold, lshCandidates, processed));
+	}
+
+	/**
+	 * Visit the sentences in order, letting each unprocessed one seed a group with its unprocessed
+	 * neighbours.
+	 */
+	private List<List<String>> groupGreedy(List<Sentence> sentences, NeighbourSearch search) {
+		List<List<String>> groups = new ArrayList<>();
+		boolean[] processed = new boolean[sentences.size()];
+		for (int i = 0; i < processed.length; i++) {
+			if (processed[i]) {
+				continue;
+			}
+			processed[i] = true;
+			List<String> similarSentences = new ArrayList<>();
+			addOccurrences(similarSentences, sentences.get(i));
+			for (int j : search.neighbours(i, processed)) {
+				if (!processed[j]) {
+					processed[j] = true;
+					addOccurrences(similarSentences, sentences.get(j));
+				}
+			}
+			// Only add groups with more than one sentence
+			if (similarSentences.size() > 1) {
+				groups.add(similarSentences);
+			}
+		}
+
+		LOG.info("Created " + groups.size() + " similarity groups");
+		return groups;
+	}
+
+	/**
+	 * Neighbours of a sentence above the threshold, may leave out processed sentences.
+	 */
+	@FunctionalInterface
+	private interface NeighbourSearch {
+		int[] neighbours(int row, boolean[] processed);
+	}
+
+	private static void addOccurrences(List<String> group, Sentence sentence) {
+		for (int k = 0; k < sentence.getOccurrenceCount(); k++) {
+			group.add(sentence.getText());
+		}
+	}
+
 	/**
 	 * Truncate text for logging purposes.
 	 */
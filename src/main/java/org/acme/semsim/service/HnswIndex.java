@@ -0,0 +1,382 @@
+package org.acme.semsim.service;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Hierarchical navigable small world graph over the rows of a {@link SimilarityMatrix}, for
+ * approximate above-threshold neighbour search in documents too large for an exact pass.
+ * <p>
+ * Each row is inserted on a random number of layers. Every layer links a row to at most
+ * {@code m} neighbours (2m on the bottom layer), chosen by the neighbour selection heuristic of
+ * Malkov and Yashunin so that links spread over different directions instead of all pointing into
+ * the nearest cluster. Searches descend greedily through the upper layers and run a best-first
+ * search with a candidate list of {@code ef} rows on the bottom layer. Similarities are exact dot
+ * products of unit vectors, so the index may miss neighbours but never reports false ones.
+ * <p>
+ * Links are primitive arrays whose first element holds the link count. The index is built and
+ * queried by one thread.
+ */
+public final class HnswIndex {
+
+	private final SimilarityMatrix matrix;
+	private final int m;
+	private final int maxLinks0;
+	private final int efConstruction;
+	private final double levelMultiplier;
+	private final Random random;
+
+	// links[node][level] = { count, neighbour... }
+	private final int[][][] links;
+	private int entryPoint = -1;
+	private int maxLevel = -1;
+
+	private final int[] visited;
+	private int visitStamp;
+	private final ScoredHeap candidates = new ScoredHeap();
+	private final ScoredHeap results = new ScoredHeap();
+
+	/**
+	 * Build the index over all rows of a matrix.
+	 *
+	 * @param matrix         Unit vectors to index
+	 * @param m              Links per row and layer, twice as many on the bottom layer
+	 * @param efConstruction Candidate list size while inserting, higher builds a better graph more slowly
+	 * @param seed           Seed for the random layer assignment, so equal inputs give equal graphs
+	 */
+	public HnswIndex(SimilarityMatrix matrix, int m, int efConstruction, long seed) {
+		if (m < 2) {
+			throw new IllegalArgumentException("m must be at least 2");
+		}
+		this.matrix = matrix;
+		this.m = m;
+		this.maxLinks0 = 2 * m;
+		this.efConstruction = Math.max(efConstruction, m);
+		this.levelMultiplier = 1.0 / Math.log(m);
+		this.random = new Random(seed);
+		this.links = new int[matrix.size()][][];
+		this.visited = new int[matrix.size()];
+
+		for (int node = 0; node < matrix.size(); node++) {
+			insert(node);
+		}
+	}
+
+	public int size() {
+		return links.length;
+	}
+
+	/**
+	 * Find the rows with a similarity of at least threshold to a row.
+	 * The candidate list starts at efSearch and is doubled while every candidate found is above
+	 * the threshold, as more neighbours above the threshold may lie beyond it.
+	 *
+	 * @param node      Row to search neighbours for
+	 * @param threshold Minimum cosine similarity
+	 * @param efSearch  Initial candidate list size, higher finds more neighbours more slowly
+	 * @return Ascending rows other than node above the threshold
+	 */
+	public int[] neighboursAbove(int node, double threshold, int efSearch) {
+		if (entryPoint < 0) {
+			return new int[0];
+		}
+		int start = entryPoint;
+		for (int level = maxLevel; level > 0; level--) {
+			start = greedyClosest(node, start, level);
+		}
+
+		int ef = Math.max(1, efSearch);
+		while (true) {
+			searchLayer(node, start, ef, 0);
+			int[] found = new int[results.size()];
+			int count = 0;
+			boolean allAbove = true;
+			while (results.size() > 0) {
+				float score = results.topScore();
+				int id = results.pop();
+				if (score >= threshold) {
+					if (id != node) {
+						found[count++] = id;
+					}
+				} else {
+					allAbove = false;
+				}
+			}
+			if (!allAbove || ef >= links.length) {
+				int[] neighbours = Arrays.copyOf(found, count);
+				Arrays.sort(neighbours);
+				return neighbours;
+			}
+			ef = Math.min(links.length, ef * 2);
+		}
+	}
+
+	/**
+	 * Estimate the neighbour recall of the index against an exact scan: the fraction of all
+	 * above-threshold pairs of a sample of rows that {@link #neighboursAbove} finds.
+	 *
+	 * @param threshold  Minimum cosine similarity
+	 * @param efSearch   Initial candidate list size
+	 * @param sampleRows Number of evenly spaced rows to check
+	 * @return Recall between 0 and 1, 1 if the sampled rows have no neighbours at all
+	 */
+	public double estimateRecall(double threshold, int efSearch, int sampleRows) {
+		int n = links.length;
+		int samples = Math.min(n, sampleRows);
+		long exact = 0;
+		long found = 0;
+		for (int s = 0; s < samples; s++) {
+			int node = (int) ((long) s * n / samples);
+			for (int j = 0; j < n; j++) {
+				if (j != node && matrix.similarity(node, j) >= threshold) {
+					exact++;
+				}
+			}
+			found += neighboursAbove(node, threshold, efSearch).length;
+		}
+		return exact == 0 ? 1.0 : (double) found / exact;
+	}
+
+	private void insert(int node) {
+		int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+		links[node] = new int[level + 1][];
+		for (int l = 0; l <= level; l++) {
+			links[node][l] = new int[1 + (l == 0 ? maxLinks0 : m)];
+		}
+		if (entryPoint < 0) {
+			entryPoint = node;
+			maxLevel = level;
+			return;
+		}
+
+		int start = entryPoint;
+		for (int l = maxLevel; l > level; l--) {
+			start = greedyClosest(node, start, l);
+		}
+		for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+			searchLayer(node, start, efConstruction, l);
+
+			// Drain the results, best first
+			int[] nearest = new int[results.size()];
+			for (int k = nearest.length - 1; k >= 0; k--) {
+				nearest[k] = results.pop();
+			}
+			start = nearest[0];
+
+			int[] selected = selectNeighbours(node, nearest, nearest.length, m);
+			int[] nodeLinks = links[node][l];
+			System.arraycopy(selected, 0, nodeLinks, 1, selected.length);
+			nodeLinks[0] = selected.length;
+			for (int neighbour : selected) {
+				link(neighbour, node, l);
+			}
+		}
+		if (level > maxLevel) {
+			maxLevel = level;
+			entryPoint = node;
+		}
+	}
+
+	/**
+	 * Add a link from one node to another, re-selecting the node's links when it has too many.
+	 */
+	private void link(int from, int to, int level) {
+		int[] fromLinks = links[from][level];
+		int count = fromLinks[0];
+		int capacity = fromLinks.length - 1;
+		if (count < capacity) {
+			fromLinks[1 + count] = to;
+			fromLinks[0] = count + 1;
+			return;
+		}
+
+		// Sort the current links and the new one by similarity to the node, best first
+		int[] ids = new int[count + 1];
+		float[] scores = new float[count + 1];
+		for (int k = 0; k < count; k++) {
+			ids[k] = fromLinks[1 + k];
+		}
+		ids[count] = to;
+		for (int k = 0; k <= count; k++) {
+			scores[k] = matrix.similarity(from, ids[k]);
+		}
+		sortDescending(ids, scores);
+
+		int[] selected = selectNeighbours(from, ids, ids.length, capacity);
+		System.arraycopy(selected, 0, fromLinks, 1, selected.length);
+		fromLinks[0] = selected.length;
+	}
+
+	/**
+	 * Neighbour selection heuristic: a candidate is kept when it is more similar to the node than
+	 * to every neighbour kept so far. Remaining slots are filled with the best discarded candidates.
+	 *
+	 * @param candidates Candidates ordered by similarity to the node, best first
+	 */
+	private int[] selectNeighbours(int node, int[] candidates, int count, int max) {
+		int[] selected = new int[Math.min(max, count)];
+		int selectedCount = 0;
+		boolean[] taken = new boolean[count];
+		for (int c = 0; c < count && selectedCount < selected.length; c++) {
+			int candidate = candidates[c];
+			float toNode = matrix.similarity(node, candidate);
+			boolean keep = true;
+			for (int s = 0; s < selectedCount && keep; s++) {
+				keep = matrix.similarity(candidate, selected[s]) < toNode;
+			}
+			if (keep) {
+				selected[selectedCount++] = candidate;
+				taken[c] = true;
+			}
+		}
+		for (int c = 0; c < count && selectedCount < selected.length; c++) {
+			if (!taken[c]) {
+				selected[selectedCount++] = candidates[c];
+			}
+		}
+		return selected;
+	}
+
+	private int greedyClosest(int node, int start, int level) {
+		int current = start;
+		float best = matrix.similarity(node, current);
+		boolean improved = true;
+		while (improved) {
+			improved = false;
+			int[] currentLinks = links[current][level];
+			for (int k = 1; k <= currentLinks[0]; k++) {
+				int candidate = currentLinks[k];
+				float score = matrix.similarity(node, candidate);
+				if (score > best) {
+					best = score;
+					current = candidate;
+					improved = true;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Best-first search on one layer. Leaves the ef most similar rows found in {@link #results}.
+	 */
+	private void searchLayer(int node, int start, int ef, int level) {
+		visitStamp++;
+		candidates.clear();
+		results.clear();
+
+		float startScore = matrix.similarity(node, start);
+		visited[start] = visitStamp;
+		candidates.push(-startScore, start);
+		results.push(startScore, start);
+
+		while (candidates.size() > 0) {
+			// Candidates hold negated scores, so the top is the most similar candidate
+			float candidateScore = -candidates.topScore();
+			int candidate = candidates.pop();
+			if (results.size() >= ef && candidateScore < results.topScore()) {
+				break;
+			}
+			int[] candidateLinks = links[candidate][level];
+			for (int k = 1; k <= candidateLinks[0]; k++) {
+				int neighbour = candidateLinks[k];
+				if (visited[neighbour] == visitStamp) {
+					continue;
+				}
+				visited[neighbour] = visitStamp;
+				float score = matrix.similarity(node, neighbour);
+				if (results.size() < ef || score > results.topScore()) {
+					candidates.push(-score, neighbour);
+					results.push(score, neighbour);
+					if (results.size() > ef) {
+						results.pop();
+					}
+				}
+			}
+		}
+	}
+
+	private static void sortDescending(int[] ids, float[] scores) {
+		// Insertion sort, the lists hold at most 2m + 1 entries
+		for (int i = 1; i < ids.length; i++) {
+			int id = ids[i];
+			float score = scores[i];
+			int j = i - 1;
+			while (j >= 0 && scores[j] < score) {
+				ids[j + 1] = ids[j];
+				scores[j + 1] = scores[j];
+				j--;
+			}
+			ids[j + 1] = id;
+			scores[j + 1] = score;
+		}
+	}
+
+	/**
+	 * Binary min-heap of (score, id) pairs on primitive arrays.
+	 */
+	private static final class ScoredHeap {
+		private float[] scores = new float[64];
+		private int[] ids = new int[64];
+		private int size;
+
+		int size() {
+			return size;
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+		float topScore() {
+			return scores[0];
+		}
+
+		void push(float score, int id) {
+			if (size == scores.length) {
+				scores = Arrays.copyOf(scores, size * 2);
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (scores[parent] <= score) {
+					break;
+				}
+				scores[i] = scores[parent];
+				ids[i] = ids[parent];
+				i = parent;
+			}
+			scores[i] = score;
+			ids[i] = id;
+		}
+
+		int pop() {
+			int top = ids[0];
+			size--;
+			if (size > 0) {
+				float score = scores[size];
+				int id = ids[size];
+				int i = 0;
+				while (true) {
+					int child = 2 * i + 1;
+					if (child >= size) {
+						break;
+					}
+					if (child + 1 < size && scores[child + 1] < scores[child]) {
+						child++;
+					}
+					if (scores[child] >= score) {
+						break;
+					}
+					scores[i] = scores[child];
+					ids[i] = ids[child];
+					i = child;
+				}
+				scores[i] = score;
+				ids[i] = id;
+			}
+			return top;
+		}
+	}
+}
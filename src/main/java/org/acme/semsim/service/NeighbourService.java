@@ -0,0 +1,70 @@
+package org.acme.semsim.service;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import org.acme.semsim.dto.ElementNeighbours;
+import org.acme.semsim.dto.Neighbour;
+import org.acme.semsim.model.Sentence;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Service for finding the nearest texts of elements, as an alternative to threshold groups.
+ */
+@ApplicationScoped
+public class NeighbourService {
+
+	private static final Logger LOG = Logger.getLogger(NeighbourService.class);
+
+	/** Largest number of neighbours that can be requested per element */
+	public static final int MAX_K = 100;
+
+	/**
+	 * Find the k nearest texts of the element with a cms:semid.
+	 *
+	 * @param sentences Distinct texts of a session with their vectors and semids
+	 * @param semid     The element's cms:semid
+	 * @param k         Number of neighbours
+	 * @return The element's text with its neighbours, or null if no element has the semid
+	 */
+	public ElementNeighbours neighboursOf(List<Sentence> sentences, String semid, int k) {
+		for (int row = 0; row < sentences.size(); row++) {
+			if (sentences.get(row).getSemids().contains(semid)) {
+				SimilarityMatrix matrix = new SimilarityMatrix(sentences);
+				return toElementNeighbours(sentences, row, matrix.topNeighbours(row, k), 0);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Find the k nearest texts of every text.
+	 *
+	 * @param sentences Distinct texts of a session with their vectors and semids
+	 * @param k         Number of neighbours per text
+	 * @return Every text with its neighbours, in document order
+	 */
+	public List<ElementNeighbours> allNeighbours(List<Sentence> sentences, int k) {
+		long start = System.nanoTime();
+		TopKHeaps heaps = new SimilarityMatrix(sentences).topNeighbours(k);
+		List<ElementNeighbours> result = new ArrayList<>(sentences.size());
+		for (int row = 0; row < sentences.size(); row++) {
+			result.add(toElementNeighbours(sentences, row, heaps, row));
+		}
+		LOG.info("Found " + k + " nearest neighbours of " + sentences.size() + " texts in " +
+				(System.nanoTime() - start) / 1_000_000 + " ms");
+		return result;
+	}
+
+	private static ElementNeighbours toElementNeighbours(List<Sentence> sentences, int row, TopKHeaps heaps,
+			int heap) {
+		List<Neighbour> neighbours = new ArrayList<>(heaps.size(heap));
+		for (int rank = 0; rank < heaps.size(heap); rank++) {
+			Sentence neighbour = sentences.get(heaps.id(heap, rank));
+			neighbours.add(new Neighbour(neighbour.getText(), neighbour.getSemids(), heaps.score(heap, rank)));
+		}
+		Sentence sentence = sentences.get(row);
+		return new ElementNeighbours(sentence.getText(), sentence.getSemids(), neighbours);
+	}
+}
@@ -0,0 +1,131 @@
+package org.acme.semsim.service;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Fixed pool of ONNX Runtime sessions over the same model.
+ * <p>
+ * Each session gets its own intra-op thread pool, so several small sessions can keep a large
+ * node busy with independent batches instead of all callers contending for one session.
+ * A caller borrows an idle session for the duration of one {@link #run(Map)} call.
+ */
+public class OrtSessionPool implements AutoCloseable {
+
+	private static final Logger LOG = Logger.getLogger(OrtSessionPool.class);
+
+	private final List<OrtSession> sessions = new ArrayList<>();
+	private final BlockingQueue<OrtSession> idleSessions;
+
+	/**
+	 * Threading and optimization settings applied to every session of the pool.
+	 *
+	 * @param intraOpThreads    Threads used inside one operator, 0 for the ONNX Runtime default
+	 * @param interOpThreads    Threads used to run independent operators, 0 for the ONNX Runtime default
+	 * @param executionMode     Sequential or parallel operator execution
+	 * @param optimizationLevel Graph optimization level
+	 * @param optimizedModelPath File the optimized graph is written to, or null to not write it
+	 */
+	public record Settings(int intraOpThreads, int interOpThreads,
+			OrtSession.SessionOptions.ExecutionMode executionMode,
+			OrtSession.SessionOptions.OptLevel optimizationLevel,
+			String optimizedModelPath) {
+
+		/**
+		 * Create session options for these settings. The caller owns and closes the options.
+		 */
+		public OrtSession.SessionOptions toSessionOptions() throws OrtException {
+			OrtSession.SessionOptions options = new OrtSession.SessionOptions();
+			if (intraOpThreads > 0) {
+				options.setIntraOpNumThreads(intraOpThreads);
+			}
+			if (interOpThreads > 0) {
+				options.setInterOpNumThreads(interOpThreads);
+			}
+			options.setExecutionMode(executionMode);
+			options.setOptimizationLevel(optimizationLevel);
+			if (optimizedModelPath != null) {
+				options.setOptimizedModelFilePath(optimizedModelPath);
+			}
+			return options;
+		}
+	}
+
+	/**
+	 * Factory creating one session from prepared session options.
+	 */
+	@FunctionalInterface
+	public interface SessionFactory {
+		OrtSession create(OrtEnvironment env, OrtSession.SessionOptions options) throws OrtException;
+	}
+
+	/**
+	 * Create a pool of sessions.
+	 *
+	 * @param env      The ONNX Runtime environment
+	 * @param size     Number of sessions
+	 * @param settings Settings applied to each session
+	 * @param factory  Creates a session, e.g. from a model path or model bytes
+	 * @throws OrtException if a session cannot be created
+	 */
+	public OrtSessionPool(OrtEnvironment env, int size, Settings settings, SessionFactory factory) throws OrtException {
+		int poolSize = Math.max(1, size);
+		idleSessions = new ArrayBlockingQueue<>(poolSize);
+		try (OrtSession.SessionOptions options = settings.toSessionOptions()) {
+			for (int i = 0; i < poolSize; i++) {
+				OrtSession session = factory.create(env, options);
+				sessions.add(session);
+				idleSessions.add(session);
+			}
+		} catch (OrtException | RuntimeException e) {
+			close();
+			throw e;
+		}
+		LOG.info("Created " + poolSize + " inference sessions with " + settings);
+	}
+
+	/**
+	 * Run inference on an idle session, waiting for one if all are busy.
+	 * The caller must close the returned result.
+	 */
+	public OrtSession.Result run(Map<String, OnnxTensor> inputs) throws OrtException {
+		OrtSession session;
+		try {
+			session = idleSessions.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for an inference session", e);
+		}
+		try {
+			return session.run(inputs);
+		} finally {
+			idleSessions.add(session);
+		}
+	}
+
+	public int size() {
+		return sessions.size();
+	}
+
+	@Override
+	public void close() {
+		for (OrtSession session : sessions) {
+			try {
+				session.close();
+			} catch (OrtException e) {
+				LOG.error("Failed to close inference session", e);
+			}
+		}
+		sessions.clear();
+		idleSessions.clear();
+	}
+}
@@ -0,0 +1,224 @@
+package org.acme.semsim.service;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Signed random projection signatures over the rows of a {@link SimilarityMatrix}, for generating
+ * candidate pairs cheaply before their exact similarity is checked.
+ * <p>
+ * Each bit of a signature is the side of a random hyperplane a row lies on. Two rows at angle
+ * theta disagree on a bit with probability theta / pi, so the Hamming distance of two signatures,
+ * a few {@link Long#bitCount} calls, estimates their cosine similarity. Candidates are found either
+ * by banding, where the signature is cut into bands and rows sharing a band end up in the same
+ * bucket, or by a Hamming scan over all later rows. Either way a candidate is only checked exactly
+ * when its Hamming distance is plausible at the threshold, and reported only when the exact check
+ * passes, so pairs may be missed but never invented.
+ * <p>
+ * The index is built and queried by one thread.
+ */
+public final class RandomProjectionLsh {
+
+	/** Standard deviations above the expected Hamming distance at the threshold still checked exactly */
+	static final double HAMMING_SLACK = 3.0;
+
+	/**
+	 * How candidate pairs are generated.
+	 */
+	public enum Candidates {
+		/** Rows sharing the signature bits of at least one band, sub-quadratic on spread out data */
+		BANDS,
+		/** All later rows, filtered by Hamming distance, quadratic but a few bit operations per pair */
+		HAMMING
+	}
+
+	private final SimilarityMatrix matrix;
+	private final int bands;
+	private final int rowsPerBand;
+	private final int bits;
+	private final int words;
+	private final long[] signatures;
+
+	// Per band: rows sorted by band key and then by row, the position of each row in that order,
+	// and the end of each row's bucket, so the later rows of a bucket follow the row itself
+	private final int[][] bucketOrder;
+	private final int[][] bucketPosition;
+	private final int[][] bucketEnd;
+
+	private final int[] seen;
+	private int seenStamp;
+
+	/**
+	 * Compute the signatures and band buckets of all rows of a matrix.
+	 *
+	 * @param matrix      Unit vectors to index
+	 * @param bands       Number of bands
+	 * @param rowsPerBand Signature bits per band, more make buckets smaller and collisions rarer
+	 * @param seed        Seed for the random hyperplanes, so equal inputs give equal signatures
+	 */
+	public RandomProjectionLsh(SimilarityMatrix matrix, int bands, int rowsPerBand, long seed) {
+		if (bands < 1 || rowsPerBand < 1 || rowsPerBand > 32) {
+			throw new IllegalArgumentException("Need at least one band and between 1 and 32 rows per band");
+		}
+		this.matrix = matrix;
+		this.bands = bands;
+		this.rowsPerBand = rowsPerBand;
+		this.bits = bands * rowsPerBand;
+		this.words = (bits + 63) / 64;
+		int n = matrix.size();
+		this.signatures = new long[n * words];
+		this.seen = new int[n];
+
+		int dimensions = matrix.dimensions();
+		Random random = new Random(seed);
+		float[] hyperplanes = new float[bits * dimensions];
+		for (int k = 0; k < hyperplanes.length; k++) {
+			hyperplanes[k] = (float) random.nextGaussian();
+		}
+		for (int row = 0; row < n; row++) {
+			for (int bit = 0; bit < bits; bit++) {
+				if (matrix.dot(row, hyperplanes, bit * dimensions) >= 0f) {
+					signatures[row * words + (bit >>> 6)] |= 1L << (bit & 63);
+				}
+			}
+		}
+
+		this.bucketOrder = new int[bands][n];
+		this.bucketPosition = new int[bands][n];
+		this.bucketEnd = new int[bands][n];
+		long[] keyedRows = new long[n];
+		for (int band = 0; band < bands; band++) {
+			for (int row = 0; row < n; row++) {
+				keyedRows[row] = (long) bandKey(row, band) << 32 | row;
+			}
+			Arrays.sort(keyedRows);
+			int end = n;
+			for (int position = n - 1; position >= 0; position--) {
+				if (position < n - 1 && keyedRows[position] >>> 32 != keyedRows[position + 1] >>> 32) {
+					end = position + 1;
+				}
+				int row = (int) keyedRows[position];
+				bucketOrder[band][position] = row;
+				bucketPosition[band][row] = position;
+				bucketEnd[band][row] = end;
+			}
+		}
+	}
+
+	public int size() {
+		return matrix.size();
+	}
+
+	public int bits() {
+		return bits;
+	}
+
+	/**
+	 * Largest Hamming distance checked exactly at a threshold: the expected distance of two rows
+	 * exactly at the threshold plus {@link #HAMMING_SLACK} standard deviations.
+	 */
+	int maxHammingDistance(double threshold) {
+		double p = Math.acos(Math.max(-1.0, Math.min(1.0, threshold))) / Math.PI;
+		double limit = bits * p + HAMMING_SLACK * Math.sqrt(bits * p * (1.0 - p));
+		return (int) Math.min(bits, Math.ceil(limit));
+	}
+
+	int hammingDistance(int i, int j) {
+		int distance = 0;
+		int a = i * words;
+		int b = j * words;
+		for (int k = 0; k < words; k++) {
+			distance += Long.bitCount(signatures[a + k] ^ signatures[b + k]);
+		}
+		return distance;
+	}
+
+	/**
+	 * Find the later rows with a similarity of at least threshold to a row.
+	 *
+	 * @param row        Row to search neighbours for
+	 * @param threshold  Minimum cosine similarity
+	 * @param candidates How candidate rows are generated
+	 * @param skipRows   Rows to leave out, may be null
+	 * @return Ascending rows j &gt; row above the threshold
+	 */
+	public int[] laterNeighboursAbove(int row, double threshold, Candidates candidates, boolean[] skipRows) {
+		int maxDistance = maxHammingDistance(threshold);
+		int[] found = new int[16];
+		int count = 0;
+
+		if (candidates == Candidates.HAMMING) {
+			for (int j = row + 1; j < matrix.size(); j++) {
+				if ((skipRows == null || !skipRows[j]) && hammingDistance(row, j) <= maxDistance
+						&& matrix.similarity(row, j) >= threshold) {
+					if (count == found.length) {
+						found = Arrays.copyOf(found, count * 2);
+					}
+					found[count++] = j;
+				}
+			}
+			return Arrays.copyOf(found, count);
+		}
+
+		seenStamp++;
+		for (int band = 0; band < bands; band++) {
+			int[] order = bucketOrder[band];
+			int end = bucketEnd[band][row];
+			for (int position = bucketPosition[band][row] + 1; position < end; position++) {
+				int j = order[position];
+				if (seen[j] == seenStamp) {
+					continue;
+				}
+				seen[j] = seenStamp;
+				if ((skipRows == null || !skipRows[j]) && hammingDistance(row, j) <= maxDistance
+						&& matrix.similarity(row, j) >= threshold) {
+					if (count == found.length) {
+						found = Arrays.copyOf(found, count * 2);
+					}
+					found[count++] = j;
+				}
+			}
+		}
+		int[] neighbours = Arrays.copyOf(found, count);
+		Arrays.sort(neighbours);
+		return neighbours;
+	}
+
+	/**
+	 * Estimate the recall against an exact scan: the fraction of the above-threshold pairs of a
+	 * sample of rows with later rows that {@link #laterNeighboursAbove} finds.
+	 *
+	 * @param threshold  Minimum cosine similarity
+	 * @param candidates How candidate rows are generated
+	 * @param sampleRows Number of evenly spaced rows to check
+	 * @return Recall between 0 and 1, 1 if the sampled rows have no neighbours at all
+	 */
+	public double estimateRecall(double threshold, Candidates candidates, int sampleRows) {
+		int n = matrix.size();
+		int samples = Math.min(n, sampleRows);
+		long exact = 0;
+		long found = 0;
+		for (int s = 0; s < samples; s++) {
+			int row = (int) ((long) s * n / samples);
+			for (int j = row + 1; j < n; j++) {
+				if (matrix.similarity(row, j) >= threshold) {
+					exact++;
+				}
+			}
+			found += laterNeighboursAbove(row, threshold, candidates, null).length;
+		}
+		return exact == 0 ? 1.0 : (double) found / exact;
+	}
+
+	/**
+	 * The signature bits of one band as an integer.
+	 */
+	private int bandKey(int row, int band) {
+		int key = 0;
+		int first = band * rowsPerBand;
+		for (int bit = first; bit < first + rowsPerBand; bit++) {
+			key = key << 1 | (int) (signatures[row * words + (bit >>> 6)] >>> (bit & 63)) & 1;
+		}
+		return key;
+	}
+}
@@ -1,12 +1,16 @@
 package org.acme.semsim.service;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.acme.semsim.model.SessionData;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
@@ -41,6 +45,13 @@ public class SessionService {
 				TimeUnit.MINUTES);
 	}
 
+	@PreDestroy
+	void shutdown() {
+		cleanupExecutor.shutdownNow();
+		sessions.values().forEach(SessionService::discard);
+		sessions.clear();
+	}
+
 	/**
 	 * Create a new session and return its ID.
 	 * 
@@ -68,7 +79,9 @@ public class SessionService {
 
 		if (session != null && session.isExpired(sessionTimeoutMinutes)) {
 			LOG.debug("Session expired: " + sessionId);
-			sessions.remove(sessionId);
+			if (sessions.remove(sessionId, session)) {
+				discard(session);
+			}
 			return null;
 		}
 
@@ -81,10 +94,28 @@ public class SessionService {
 	 * @param sessionId The session ID to remove
 	 */
 	public void removeSession(String sessionId) {
-		sessions.remove(sessionId);
+		SessionData session = sessions.remove(sessionId);
+		if (session != null) {
+			discard(session);
+		}
 		LOG.debug("Removed session: " + sessionId);
 	}
 
+	/**
+	 * Delete the files kept for a removed session.
+	 */
+	private static void discard(SessionData session) {
+		Path sourceFile = session.getSourceFile();
+		if (sourceFile == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(sourceFile);
+		} catch (IOException e) {
+			LOG.warn("Could not delete source file " + sourceFile + " of session " + session.getSessionId() + ": " + e.getMessage());
+		}
+	}
+
 	/**
 	 * Generate a unique session ID.
 	 * 
@@ -105,6 +136,7 @@ public class SessionService {
 			boolean expired = entry.getValue().isExpired(sessionTimeoutMinutes);
 			if (expired) {
 				LOG.debug("Removing expired session: " + entry.getKey());
+				discard(entry.getValue());
 			}
 			return expired;
 		});
@@ -0,0 +1,370 @@
+package org.acme.semsim.service;
+
+import org.acme.semsim.model.Sentence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Sentence vectors packed into one contiguous row-major float matrix of unit vectors, with a
+ * cache-blocked kernel for thresholded cosine similarity.
+ * <p>
+ * Rows are normalized once when packing, so the cosine similarity of two rows is their dot
+ * product and no magnitudes are computed per pair. Similarities are computed tile by tile:
+ * a tile of columns stays in cache while a block of rows is swept over it, four rows at a time
+ * so each loaded column value feeds four accumulators. Column tiles are independent, so they
+ * can be computed in parallel and merged in tile order, which keeps the result deterministic.
+ */
+public final class SimilarityMatrix {
+
+	/** Columns per tile, 256 vectors of 384 floats take 384 KB */
+	static final int COLUMN_TILE = 256;
+
+	/** Rows swept together over each column tile by {@link #topNeighbours(int)} */
+	private static final int ROW_BLOCK = 64;
+
+	private final float[] matrix;
+	private final int rows;
+	private final int dimensions;
+
+	/**
+	 * Pack and normalize the vectors of the given sentences.
+	 * Zero vectors stay zero and are similar to nothing.
+	 *
+	 * @param sentences Sentences with vectors of equal length
+	 */
+	public SimilarityMatrix(List<Sentence> sentences) {
+		this.rows = sentences.size();
+		this.dimensions = rows == 0 ? 0 : sentences.get(0).getVector().length;
+		this.matrix = new float[rows * dimensions];
+		for (int i = 0; i < rows; i++) {
+			float[] vector = sentences.get(i).getVector();
+			if (vector.length != dimensions) {
+				throw new IllegalArgumentException("Vectors must have the same dimensions");
+			}
+			double magnitude = 0.0;
+			for (float v : vector) {
+				magnitude += (double) v * v;
+			}
+			float scale = magnitude > 0 ? (float) (1.0 / Math.sqrt(magnitude)) : 0f;
+			int offset = i * dimensions;
+			for (int k = 0; k < dimensions; k++) {
+				matrix[offset + k] = vector[k] * scale;
+			}
+		}
+	}
+
+	public int size() {
+		return rows;
+	}
+
+	public int dimensions() {
+		return dimensions;
+	}
+
+	/**
+	 * Cosine similarity of two rows.
+	 */
+	public float similarity(int i, int j) {
+		float sum = 0f;
+		int a = i * dimensions;
+		int b = j * dimensions;
+		for (int k = 0; k < dimensions; k++) {
+			sum += matrix[a + k] * matrix[b + k];
+		}
+		return sum;
+	}
+
+	/**
+	 * Dot product of a row with the vector starting at offset in an array of other vectors.
+	 */
+	float dot(int row, float[] vectors, int offset) {
+		float sum = 0f;
+		int a = row * dimensions;
+		for (int k = 0; k < dimensions; k++) {
+			sum += matrix[a + k] * vectors[offset + k];
+		}
+		return sum;
+	}
+
+	/**
+	 * Find, for each row of a block, the later rows at or above a similarity threshold.
+	 *
+	 * @param rowStart  First row of the block
+	 * @param rowEnd    End of the block, exclusive
+	 * @param threshold Minimum cosine similarity
+	 * @param skipRows  Rows to leave out of the block, may be null
+	 * @return For each row of the block, the ascending columns j &gt; row with a similarity of at
+	 *         least threshold. Skipped rows get an empty array.
+	 */
+	public int[][] rowsAbove(int rowStart, int rowEnd, double threshold, boolean[] skipRows) {
+		return rowsAbove(rowStart, rowEnd, threshold, skipRows, null);
+	}
+
+	/**
+	 * Find, for each row of a block, the later rows at or above a similarity threshold,
+	 * computing the column tiles on a fork-join pool. The result does not depend on the pool.
+	 *
+	 * @param pool Pool computing the column tiles, or null to compute them on the calling thread
+	 * @see #rowsAbove(int, int, double, boolean[])
+	 */
+	public int[][] rowsAbove(int rowStart, int rowEnd, double threshold, boolean[] skipRows, ForkJoinPool pool) {
+		return rowsAbove(rowStart, rowEnd, threshold, skipRows, pool, null);
+	}
+
+	/**
+	 * Find, for each row of a block, the later rows at or above a similarity threshold together
+	 * with their similarities.
+	 *
+	 * @param scores Array of one entry per row of the block, filled with the similarity of each
+	 *               returned column, or null if only the columns are needed
+	 * @see #rowsAbove(int, int, double, boolean[], ForkJoinPool)
+	 */
+	public int[][] rowsAbove(int rowStart, int rowEnd, double threshold, boolean[] skipRows, ForkJoinPool pool,
+			float[][] scores) {
+		int blockRows = rowEnd - rowStart;
+
+		// Compact the block to the rows that are actually needed
+		int[] blockRowIndices = new int[blockRows];
+		int count = 0;
+		for (int i = rowStart; i < rowEnd; i++) {
+			if (skipRows == null || !skipRows[i]) {
+				blockRowIndices[count++] = i;
+			}
+		}
+
+		TileHits hits = new TileHits(blockRows);
+		if (count == 0) {
+			return hits.toArrays(scores);
+		}
+
+		int firstColumn = blockRowIndices[0] + 1;
+		int tiles = (rows - firstColumn + COLUMN_TILE - 1) / COLUMN_TILE;
+		int rowCount = count;
+
+		if (pool == null || pool.getParallelism() == 1 || tiles <= 1) {
+			// Tiles ascend over columns, so hits are appended in ascending column order
+			for (int t = 0; t < tiles; t++) {
+				int tileStart = firstColumn + t * COLUMN_TILE;
+				computeTile(blockRowIndices, rowCount, tileStart, Math.min(rows, tileStart + COLUMN_TILE),
+						threshold, rowStart, hits);
+			}
+			return hits.toArrays(scores);
+		}
+
+		List<Callable<TileHits>> tasks = new ArrayList<>(tiles);
+		for (int t = 0; t < tiles; t++) {
+			int tileStart = firstColumn + t * COLUMN_TILE;
+			tasks.add(() -> {
+				TileHits tileHits = new TileHits(blockRows);
+				computeTile(blockRowIndices, rowCount, tileStart, Math.min(rows, tileStart + COLUMN_TILE),
+						threshold, rowStart, tileHits);
+				return tileHits;
+			});
+		}
+		try {
+			// invokeAll returns the futures in task order, so merging keeps columns ascending
+			for (Future<TileHits> tile : pool.invokeAll(tasks)) {
+				hits.appendAll(tile.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while computing similarities", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to compute similarities", e.getCause());
+		}
+		return hits.toArrays(scores);
+	}
+
+	/**
+	 * Find the k most similar other rows of one row.
+	 *
+	 * @return Heaps with the single row 0, sorted by descending similarity
+	 */
+	public TopKHeaps topNeighbours(int row, int k) {
+		TopKHeaps heaps = new TopKHeaps(1, k);
+		for (int j = 0; j < rows; j++) {
+			if (j != row) {
+				heaps.offer(0, j, similarity(row, j));
+			}
+		}
+		heaps.sortDescending(0);
+		return heaps;
+	}
+
+	/**
+	 * Find the k most similar other rows of every row. Each pair is computed once, in the tiled
+	 * order of {@link #rowsAbove}, and offered to the heaps of both of its rows, so this costs
+	 * about as much as one exact grouping pass.
+	 *
+	 * @return Heaps per row, sorted by descending similarity
+	 */
+	public TopKHeaps topNeighbours(int k) {
+		TopKHeaps heaps = new TopKHeaps(rows, k);
+		float[] m = matrix;
+		for (int blockStart = 0; blockStart < rows; blockStart += ROW_BLOCK) {
+			int blockEnd = Math.min(rows, blockStart + ROW_BLOCK);
+			for (int tileStart = blockStart + 1; tileStart < rows; tileStart += COLUMN_TILE) {
+				int tileEnd = Math.min(rows, tileStart + COLUMN_TILE);
+				int i = blockStart;
+				for (; i + 4 <= blockEnd; i += 4) {
+					int a0 = i * dimensions;
+					int a1 = a0 + dimensions;
+					int a2 = a1 + dimensions;
+					int a3 = a2 + dimensions;
+					for (int j = Math.max(tileStart, i + 1); j < tileEnd; j++) {
+						int b = j * dimensions;
+						float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+						for (int d = 0; d < dimensions; d++) {
+							float v = m[b + d];
+							s0 += m[a0 + d] * v;
+							s1 += m[a1 + d] * v;
+							s2 += m[a2 + d] * v;
+							s3 += m[a3 + d] * v;
+						}
+						offerPair(heaps, i, j, s0);
+						if (j > i + 1) {
+							offerPair(heaps, i + 1, j, s1);
+						}
+						if (j > i + 2) {
+							offerPair(heaps, i + 2, j, s2);
+						}
+						if (j > i + 3) {
+							offerPair(heaps, i + 3, j, s3);
+						}
+					}
+				}
+				for (; i < blockEnd; i++) {
+					for (int j = Math.max(tileStart, i + 1); j < tileEnd; j++) {
+						offerPair(heaps, i, j, similarity(i, j));
+					}
+				}
+			}
+		}
+		for (int row = 0; row < rows; row++) {
+			heaps.sortDescending(row);
+		}
+		return heaps;
+	}
+
+	private static void offerPair(TopKHeaps heaps, int i, int j, float similarity) {
+		heaps.offer(i, j, similarity);
+		heaps.offer(j, i, similarity);
+	}
+
+	private void computeTile(int[] blockRowIndices, int count, int tileStart, int tileEnd, double threshold,
+			int rowStart, TileHits hits) {
+		int r = 0;
+		for (; r + 4 <= count; r += 4) {
+			tile4(blockRowIndices, r, tileStart, tileEnd, threshold, rowStart, hits);
+		}
+		for (; r < count; r++) {
+			tile1(blockRowIndices[r], tileStart, tileEnd, threshold, rowStart, hits);
+		}
+	}
+
+	/**
+	 * Four rows against one column tile, sharing each column load across four accumulators.
+	 */
+	private void tile4(int[] blockRowIndices, int r, int tileStart, int tileEnd, double threshold, int rowStart,
+			TileHits hits) {
+		int row0 = blockRowIndices[r];
+		int row1 = blockRowIndices[r + 1];
+		int row2 = blockRowIndices[r + 2];
+		int row3 = blockRowIndices[r + 3];
+		int a0 = row0 * dimensions;
+		int a1 = row1 * dimensions;
+		int a2 = row2 * dimensions;
+		int a3 = row3 * dimensions;
+		float[] m = matrix;
+
+		// Only columns after the first row of the quad are needed, later rows filter j > row below
+		for (int j = Math.max(tileStart, row0 + 1); j < tileEnd; j++) {
+			int b = j * dimensions;
+			float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+			for (int k = 0; k < dimensions; k++) {
+				float v = m[b + k];
+				s0 += m[a0 + k] * v;
+				s1 += m[a1 + k] * v;
+				s2 += m[a2 + k] * v;
+				s3 += m[a3 + k] * v;
+			}
+			if (s0 >= threshold) {
+				hits.append(row0 - rowStart, j, s0);
+			}
+			if (j > row1 && s1 >= threshold) {
+				hits.append(row1 - rowStart, j, s1);
+			}
+			if (j > row2 && s2 >= threshold) {
+				hits.append(row2 - rowStart, j, s2);
+			}
+			if (j > row3 && s3 >= threshold) {
+				hits.append(row3 - rowStart, j, s3);
+			}
+		}
+	}
+
+	private void tile1(int row, int tileStart, int tileEnd, double threshold, int rowStart, TileHits hits) {
+		for (int j = Math.max(tileStart, row + 1); j < tileEnd; j++) {
+			float score = similarity(row, j);
+			if (score >= threshold) {
+				hits.append(row - rowStart, j, score);
+			}
+		}
+	}
+
+	/**
+	 * Growable column and similarity lists per row of a block.
+	 */
+	private static final class TileHits {
+		private final int[][] columns;
+		private final float[][] scores;
+		private final int[] counts;
+
+		TileHits(int blockRows) {
+			columns = new int[blockRows][];
+			scores = new float[blockRows][];
+			counts = new int[blockRows];
+		}
+
+		void append(int r, int column, float score) {
+			if (columns[r] == null) {
+				columns[r] = new int[8];
+				scores[r] = new float[8];
+			} else if (counts[r] == columns[r].length) {
+				columns[r] = Arrays.copyOf(columns[r], columns[r].length * 2);
+				scores[r] = Arrays.copyOf(scores[r], scores[r].length * 2);
+			}
+			columns[r][counts[r]] = column;
+			scores[r][counts[r]++] = score;
+		}
+
+		void appendAll(TileHits other) {
+			for (int r = 0; r < counts.length; r++) {
+				for (int k = 0; k < other.counts[r]; k++) {
+					append(r, other.columns[r][k], other.scores[r][k]);
+				}
+			}
+		}
+
+		/**
+		 * @param scoresOut Filled with the similarities per row when not null
+		 * @return The columns per row
+		 */
+		int[][] toArrays(float[][] scoresOut) {
+			int[][] result = new int[counts.length][];
+			for (int r = 0; r < counts.length; r++) {
+				result[r] = counts[r] == 0 ? new int[0] : Arrays.copyOf(columns[r], counts[r]);
+				if (scoresOut != null) {
+					scoresOut[r] = counts[r] == 0 ? new float[0] : Arrays.copyOf(scores[r], counts[r]);
+				}
+			}
+			return result;
+		}
+	}
+}
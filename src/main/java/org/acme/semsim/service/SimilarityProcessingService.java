@@ -1,26 +1,34 @@
 package org.acme.semsim.service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.core.NewCookie;
+import org.acme.semsim.model.NeighbourGraph;
 import org.acme.semsim.model.Sentence;
 import org.acme.semsim.model.SessionData;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
-import org.w3c.dom.Document;
-import org.w3c.dom.Text;
-import org.xml.sax.SAXException;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPathExpressionException;
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-import static org.acme.semsim.service.XmlProcessorService.createWorkingCopy;
-
 /**
  * This class holds the upper business logic for the /api/similarity endpoint.
  * A main service that orchestrating Text extraction, embeddings generation, and similarity grouping.
@@ -30,15 +38,21 @@ public class SimilarityProcessingService {
 
 	private static final Logger LOG = Logger.getLogger(SimilarityProcessingService.class);
 
-	private final Executor processingExecutor = Executors.newFixedThreadPool(2);
-
 	public static final String SESSION_COOKIE_NAME = "session_id";
 
+	@ConfigProperty(name = "semsim.processing.threads", defaultValue = "2")
+	int processingThreads;
+
+	@ConfigProperty(name = "semsim.export.enabled", defaultValue = "true")
+	boolean exportEnabled;
+
+	private ExecutorService processingExecutor;
+
 	@Inject
 	XmlProcessorService xmlProcessorService;
 
 	@Inject
-	EmbeddingService embeddingService;
+	EmbeddingDispatcher embeddingDispatcher;
 
 	@Inject
 	GroupingService groupingService;
@@ -46,6 +60,17 @@ public class SimilarityProcessingService {
 	@Inject
 	SessionService sessionService;
 
+	@PostConstruct
+	void initialize() {
+		LOG.info("Initializing processing executor with " + processingThreads + " threads");
+		processingExecutor = Executors.newFixedThreadPool(Math.max(1, processingThreads));
+	}
+
+	@PreDestroy
+	void shutdown() {
+		processingExecutor.shutdownNow();
+	}
+
 	/**
 	 *
 	 * Process an XML document and find similarity groups using specific element
@@ -59,21 +84,62 @@ public class SimilarityProcessingService {
 	 * @return SessionCookie with sessionId to retrieve results later
 	 */
 	// TODO: Overload method that accepts a session cookie, so several XML documents can be processed in same session.
-	public NewCookie startAsyncProcessing(String xmlContent, String elementNames, Double threshold) throws XPathExpressionException, ParserConfigurationException, IOException, SAXException {
+	public NewCookie startAsyncProcessing(String xmlContent, String elementNames, Double threshold) throws XMLStreamException, IOException {
+		return startAsyncProcessing(new ByteArrayInputStream(xmlContent.getBytes(StandardCharsets.UTF_8)),
+				StandardCharsets.UTF_8, elementNames, threshold);
+	}
+
+	/**
+	 * Process an XML document read from a stream, e.g. a request body, without holding it in memory.
+	 * Only the extracted texts are kept once the stream has been read. When export is enabled, the bytes
+	 * read are copied to a temporary file of the session as well, to write the annotated document later.
+	 *
+	 * @param xmlContent   XML document content to process
+	 * @param charset      Charset declared outside the document, or null to detect it from the document
+	 * @param elementNames Space-separated string of element names to extract text from
+	 * @param threshold    Optional similarity threshold (null for default)
+	 * @return SessionCookie with sessionId to retrieve results later
+	 */
+	public NewCookie startAsyncProcessing(InputStream xmlContent, Charset charset, String elementNames, Double threshold) throws XMLStreamException, IOException {
+		if (!exportEnabled) {
+			return startAsyncProcessing(xmlProcessorService.extractUniqueTexts(xmlContent, charset, elementNames),
+					null, charset, elementNames, threshold);
+		}
+		Path sourceFile = Files.createTempFile("semsim-", ".xml");
+		try {
+			List<Sentence> uniqueTexts;
+			try (OutputStream copy = new BufferedOutputStream(Files.newOutputStream(sourceFile))) {
+				// The parser reads the document up to its end, so the copy is complete once it is parsed
+				uniqueTexts = xmlProcessorService.extractUniqueTexts(new CopyingInputStream(xmlContent, copy), charset, elementNames);
+			}
+			return startAsyncProcessing(uniqueTexts, sourceFile, charset, elementNames, threshold);
+		} catch (XMLStreamException | IOException | RuntimeException e) {
+			Files.deleteIfExists(sourceFile);
+			throw e;
+		}
+	}
+
+	/**
+	 * @param uniqueTexts Texts extracted before a session is created, so malformed XML is rejected right away.
+	 *                    Exact duplicates are collapsed into one sentence with all their semids
+	 * @param sourceFile  Copy of the document for export, or null
+	 */
+	private NewCookie startAsyncProcessing(List<Sentence> uniqueTexts, Path sourceFile, Charset charset,
+			String elementNames, Double threshold) {
 		LOG.info("Creating groups for XML document with element names: " + elementNames + 
 				(threshold != null ? " and threshold: " + threshold : ""));
 
-		// First create a working copy of the XML document with added attributes
-		Document document = createWorkingCopy(xmlContent, elementNames);
-
 		// Create a new session
 		String sessionId = sessionService.createSession();
+		if (sourceFile != null) {
+			sessionService.getSession(sessionId).setSource(sourceFile, charset, elementNames);
+		}
 		LOG.info("Starting XML async processing for session: " + sessionId +
 				(elementNames != null ? " with element names: " + elementNames : "") +
 				(threshold != null ? " and threshold: " + threshold : ""));
 
 		// Start async processing
-		CompletableFuture.runAsync(() -> processXmlContent(sessionId, document, elementNames, threshold), processingExecutor)
+		CompletableFuture.runAsync(() -> processXmlContent(sessionId, uniqueTexts, elementNames, threshold), processingExecutor)
 				// TODO: Rename to "unknown error in method processXmlContent()" and add more
 				// specific handling inside method.
 				.exceptionally(ex -> {
@@ -92,16 +158,58 @@ public class SimilarityProcessingService {
 	/**
 	 * Backward compatibility method
 	 */
-	public NewCookie startAsyncProcessing(String xmlContent, String elementNames) throws XPathExpressionException, ParserConfigurationException, IOException, SAXException {
+	public NewCookie startAsyncProcessing(String xmlContent, String elementNames) throws XMLStreamException, IOException {
 		return startAsyncProcessing(xmlContent, elementNames, null);
 	}
 
+	/**
+	 * Write the document of a processed session with cms:semid attributes on the selected elements and
+	 * cms:group and cms:score attributes on those in a similarity group. Group ids number the session's
+	 * groups from 1 in the order of the results, and the score is the similarity to the group's first text.
+	 *
+	 * @param sessionData A completed session with a source file
+	 * @param out         Stream the annotated document is written to as UTF-8
+	 * @throws XMLStreamException if the document cannot be written
+	 * @throws IOException        if the source file cannot be read
+	 */
+	public void writeAnnotatedXml(SessionData sessionData, OutputStream out) throws XMLStreamException, IOException {
+		List<Sentence> sentences = sessionData.getAllSentences();
+		Map<String, Sentence> sentenceByText = new HashMap<>();
+		int elementCount = 0;
+		for (Sentence sentence : sentences) {
+			sentenceByText.put(sentence.getText(), sentence);
+			for (String semid : sentence.getSemids()) {
+				elementCount = Math.max(elementCount, Integer.parseInt(semid));
+			}
+		}
+
+		int[] groupIds = new int[elementCount];
+		float[] scores = new float[elementCount];
+		List<List<String>> groups = sessionData.getSimilaritySentenceGroups();
+		for (int group = 0; group < groups.size(); group++) {
+			Sentence first = sentenceByText.get(groups.get(group).get(0));
+			for (String text : groups.get(group)) {
+				Sentence sentence = sentenceByText.get(text);
+				float score = VectorMath.cosine(first.getVector(), sentence.getVector());
+				for (String semid : sentence.getSemids()) {
+					groupIds[Integer.parseInt(semid) - 1] = group + 1;
+					scores[Integer.parseInt(semid) - 1] = score;
+				}
+			}
+		}
+
+		try (InputStream source = new BufferedInputStream(Files.newInputStream(sessionData.getSourceFile()))) {
+			xmlProcessorService.writeAnnotatedCopy(source, sessionData.getSourceCharset(), sessionData.getElementNames(),
+					groupIds, scores, out);
+		}
+	}
+
 	/**
 	 * Process XML content with specific element names and store results in the
 	 * session.
 	 *
 	 */
-	private void processXmlContent(String sessionId, Document document, String elementNames, Double threshold) {
+	private void processXmlContent(String sessionId, List<Sentence> textContentWithEmbeddings, String elementNames, Double threshold) {
 
 		// Get session data, session is already in PROCESSING state by default
 		SessionData sessionData = sessionService.getSession(sessionId);
@@ -118,30 +226,36 @@ public class SimilarityProcessingService {
 					(elementNames != null ? " with element names: " + elementNames : "") +
 					(threshold != null ? " and threshold: " + threshold : ""));
 
-
-			// 1. Extract text elements from XML
-			// TODO: extractTextElements should return a list of Text inheriting from Text, that has the added fields for 1. amount of duplicates found for that text in Document and 2. the embedding vector.
-			List<String> textElements = xmlProcessorService.extractTextElements(document, elementNames);
-			LOG.info("Extracted " + textElements.size() + " text elements from XML for session " + sessionId);
-			if (textElements.isEmpty()) {
+			int occurrences = textContentWithEmbeddings.stream().mapToInt(Sentence::getOccurrenceCount).sum();
+			LOG.info("Extracted " + occurrences + " text elements with " + textContentWithEmbeddings.size() +
+					" distinct texts from XML for session " + sessionId);
+			if (textContentWithEmbeddings.isEmpty()) {
 				LOG.warn("No textElements extracted for session: " + sessionId);
 				sessionData.setProcessingStatus(SessionData.ProcessingStatus.NO_TEXT_EXTRACTED);
 				return;
 			}
 
-			// 2. Generate and store embeddings in session
-			// TODO: Modify Sentence to custom Text object, embeddings should be stored in that object.
-			List<Sentence> textContentWithEmbeddings = embeddingService.generateEmbeddings(textElements);
+			// 2. Generate and store embeddings in session, each distinct text is embedded once and
+			// inference calls are shared with concurrent sessions
+			List<String> textElements = textContentWithEmbeddings.stream().map(Sentence::getText).toList();
+			List<Sentence> embeddings = embeddingDispatcher.generateEmbeddings(textElements);
+			for (int i = 0; i < embeddings.size(); i++) {
+				textContentWithEmbeddings.get(i).setVector(embeddings.get(i).getVector());
+			}
 			LOG.info("Generated embeddings for " + textContentWithEmbeddings.size() +
 					" sentences for session " + sessionId);
 			textContentWithEmbeddings.forEach(sessionData::addSentence);
 
 			// 3. Group and store similarity groups in session
 			// TODO: Create a class for the similarity groups with metadata about the group such as its similarity score, etc.
-			if (threshold != null) {
-				similarityGroups = groupingService.group(textContentWithEmbeddings, threshold);
+			// The neighbour graph is kept in the session, so other thresholds can be tried without reprocessing
+			double groupingThreshold = threshold != null ? threshold : groupingService.getSimilarityThreshold();
+			NeighbourGraph neighbourGraph = groupingService.buildNeighbourGraph(textContentWithEmbeddings, groupingThreshold);
+			if (neighbourGraph != null) {
+				sessionData.setNeighbourGraph(neighbourGraph);
+				similarityGroups = groupingService.group(textContentWithEmbeddings, neighbourGraph, groupingThreshold);
 			} else {
-				similarityGroups = groupingService.group(textContentWithEmbeddings);
+				similarityGroups = groupingService.group(textContentWithEmbeddings, groupingThreshold);
 			}
 			LOG.info("Found " + similarityGroups.size() + " similarity groups for session " + sessionId);
 			similarityGroups.forEach(sessionData::addSimilarityGroup);
@@ -159,8 +273,8 @@ public class SimilarityProcessingService {
 	/**
 	 * Backward compatibility method
 	 */
-	private void processXmlContent(String sessionId, Document document, String elementNames) {
-		processXmlContent(sessionId, document, elementNames, null);
+	private void processXmlContent(String sessionId, List<Sentence> uniqueTexts, String elementNames) {
+		processXmlContent(sessionId, uniqueTexts, elementNames, null);
 	}
 
 }
\ No newline at end of file
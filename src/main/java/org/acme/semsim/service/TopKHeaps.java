@@ -0,0 +1,116 @@
+package org.acme.semsim.service;
+
+/**
+ * One bounded min-heap of (score, id) pairs per row, in flat primitive arrays, keeping the k
+ * highest scores offered to each row. A score that does not beat the lowest kept score of a full
+ * heap is rejected with one comparison, so offering all pairs costs little more than computing them.
+ */
+public final class TopKHeaps {
+
+	private final int k;
+	private final int[] ids;
+	private final float[] scores;
+	private final int[] sizes;
+
+	/**
+	 * @param rows Number of heaps
+	 * @param k    Entries kept per heap
+	 */
+	public TopKHeaps(int rows, int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1");
+		}
+		this.k = k;
+		this.ids = new int[rows * k];
+		this.scores = new float[rows * k];
+		this.sizes = new int[rows];
+	}
+
+	public int k() {
+		return k;
+	}
+
+	/**
+	 * Number of entries kept for a row, at most k.
+	 */
+	public int size(int row) {
+		return sizes[row];
+	}
+
+	/**
+	 * Offer a scored id to a row's heap.
+	 */
+	public void offer(int row, int id, float score) {
+		int base = row * k;
+		int size = sizes[row];
+		if (size < k) {
+			// Sift up from the new last slot
+			int i = size;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (scores[base + parent] <= score) {
+					break;
+				}
+				scores[base + i] = scores[base + parent];
+				ids[base + i] = ids[base + parent];
+				i = parent;
+			}
+			scores[base + i] = score;
+			ids[base + i] = id;
+			sizes[row] = size + 1;
+			return;
+		}
+		if (score <= scores[base]) {
+			return;
+		}
+		// Replace the lowest score and sift it down
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= k) {
+				break;
+			}
+			if (child + 1 < k && scores[base + child + 1] < scores[base + child]) {
+				child++;
+			}
+			if (scores[base + child] >= score) {
+				break;
+			}
+			scores[base + i] = scores[base + child];
+			ids[base + i] = ids[base + child];
+			i = child;
+		}
+		scores[base + i] = score;
+		ids[base + i] = id;
+	}
+
+	/**
+	 * Sort a row's entries by descending score, ties by ascending id, so they can be read by rank.
+	 * Destroys the heap order, so no more entries may be offered to the row afterwards.
+	 */
+	public void sortDescending(int row) {
+		int base = row * k;
+		int size = sizes[row];
+		// Insertion sort, heaps hold only k entries
+		for (int i = 1; i < size; i++) {
+			int id = ids[base + i];
+			float score = scores[base + i];
+			int j = i - 1;
+			while (j >= 0 && (scores[base + j] < score || scores[base + j] == score && ids[base + j] > id)) {
+				ids[base + j + 1] = ids[base + j];
+				scores[base + j + 1] = scores[base + j];
+				j--;
+			}
+			ids[base + j + 1] = id;
+			scores[base + j + 1] = score;
+		}
+	}
+
+	public int id(int row, int rank) {
+		return ids[row * k + rank];
+	}
+
+	public float score(int row, int rank) {
+		return scores[row * k + rank];
+	}
+}
@@ -0,0 +1,66 @@
+package org.acme.semsim.service;
+
+/**
+ * Float32 vector kernels shared by embedding and grouping.
+ */
+public final class VectorMath {
+
+	private VectorMath() {
+	}
+
+	/**
+	 * Dot product of two vectors of equal length.
+	 */
+	public static float dot(float[] vector1, float[] vector2) {
+		float sum = 0f;
+		for (int i = 0; i < vector1.length; i++) {
+			sum += vector1[i] * vector2[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Cosine similarity between two vectors.
+	 *
+	 * @return Cosine similarity value (between -1 and 1), 0 if either vector is a zero vector
+	 */
+	public static float cosine(float[] vector1, float[] vector2) {
+		if (vector1.length != vector2.length) {
+			throw new IllegalArgumentException("Vectors must have the same dimensions");
+		}
+
+		float dotProduct = 0f;
+		float magnitude1 = 0f;
+		float magnitude2 = 0f;
+
+		for (int i = 0; i < vector1.length; i++) {
+			dotProduct += vector1[i] * vector2[i];
+			magnitude1 += vector1[i] * vector1[i];
+			magnitude2 += vector2[i] * vector2[i];
+		}
+
+		if (magnitude1 == 0 || magnitude2 == 0) {
+			return 0f; // Handle division by zero
+		}
+
+		return (float) (dotProduct / (Math.sqrt(magnitude1) * Math.sqrt(magnitude2)));
+	}
+
+	/**
+	 * Scale a vector to unit length in place. Zero vectors are left unchanged.
+	 */
+	public static void normalize(float[] vector) {
+		double magnitude = 0.0;
+		for (float v : vector) {
+			magnitude += (double) v * v;
+		}
+		magnitude = Math.sqrt(magnitude);
+
+		if (magnitude > 0) {
+			float scale = (float) (1.0 / magnitude);
+			for (int i = 0; i < vector.length; i++) {
+				vector[i] *= scale;
+			}
+		}
+	}
+}
@@ -0,0 +1,439 @@
+package org.acme.semsim.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BERT tokenizer (BertNormalizer, BertPreTokenizer and WordPiece) as configured by a
+ * Hugging Face tokenizer.json.
+ * <p>
+ * The vocabulary is held in a character trie whose transitions live in a primitive
+ * open-addressing hash table, and token ids are written into a caller-supplied
+ * {@code long[]}, so tokenizing a text allocates nothing for ASCII input.
+ * Instances are immutable and thread-safe, the per-call scratch buffer is thread-local.
+ */
+public class WordPieceTokenizer {
+
+	private static final String CLS_TOKEN = "[CLS]";
+	private static final String SEP_TOKEN = "[SEP]";
+	private static final String PAD_TOKEN = "[PAD]";
+
+	// Trie over the vocabulary, node 0 is the root
+	private final long[] transitionKeys;
+	private final int[] transitionTargets;
+	private final int transitionMask;
+	private final int[] nodeTokenIds;
+	private final int continuationRoot;
+
+	private final String[] vocabulary;
+	private final int unkId;
+	private final int clsId;
+	private final int sepId;
+	private final int padId;
+	private final int maxInputCharsPerWord;
+
+	private final boolean cleanText;
+	private final boolean handleChineseChars;
+	private final boolean lowercase;
+	private final boolean stripAccents;
+
+	private final ThreadLocal<char[]> wordBuffer;
+
+	private WordPieceTokenizer(String[] vocabulary, String unkToken, String continuingSubwordPrefix,
+			int maxInputCharsPerWord, boolean cleanText, boolean handleChineseChars, boolean lowercase,
+			boolean stripAccents) {
+		this.vocabulary = vocabulary;
+		this.maxInputCharsPerWord = maxInputCharsPerWord;
+		this.cleanText = cleanText;
+		this.handleChineseChars = handleChineseChars;
+		this.lowercase = lowercase;
+		this.stripAccents = stripAccents;
+		this.wordBuffer = ThreadLocal.withInitial(() -> new char[maxInputCharsPerWord + 1]);
+
+		// Size the transition table for one transition per vocabulary character
+		long totalChars = 0;
+		for (String token : vocabulary) {
+			totalChars += token == null ? 0 : token.length();
+		}
+		int capacity = Integer.highestOneBit((int) Math.max(16, totalChars * 2 - 1)) << 1;
+		transitionKeys = new long[capacity];
+		transitionTargets = new int[capacity];
+		transitionMask = capacity - 1;
+		Arrays.fill(transitionKeys, -1L);
+
+		int[] tokenIds = new int[(int) totalChars + 1];
+		Arrays.fill(tokenIds, -1);
+		int nodeCount = 1;
+		for (int id = 0; id < vocabulary.length; id++) {
+			String token = vocabulary[id];
+			if (token == null || token.isEmpty()) {
+				continue;
+			}
+			int node = 0;
+			for (int i = 0; i < token.length(); i++) {
+				int next = child(node, token.charAt(i));
+				if (next < 0) {
+					next = nodeCount++;
+					insertTransition(node, token.charAt(i), next);
+				}
+				node = next;
+			}
+			if (tokenIds[node] < 0) {
+				tokenIds[node] = id;
+			}
+		}
+		nodeTokenIds = Arrays.copyOf(tokenIds, nodeCount);
+
+		int node = 0;
+		for (int i = 0; i < continuingSubwordPrefix.length() && node >= 0; i++) {
+			node = child(node, continuingSubwordPrefix.charAt(i));
+		}
+		continuationRoot = node;
+
+		this.unkId = requireToken(unkToken);
+		this.clsId = requireToken(CLS_TOKEN);
+		this.sepId = requireToken(SEP_TOKEN);
+		this.padId = Math.max(0, tokenId(PAD_TOKEN));
+	}
+
+	/**
+	 * Load a tokenizer from a tokenizer.json classpath resource.
+	 *
+	 * @param resourcePath Classpath location of tokenizer.json
+	 * @return The tokenizer
+	 * @throws IOException if the resource is missing or cannot be parsed
+	 */
+	public static WordPieceTokenizer fromTokenizerJson(String resourcePath) throws IOException {
+		try (InputStream is = WordPieceTokenizer.class.getResourceAsStream(resourcePath)) {
+			if (is == null) {
+				throw new IOException("Resource not found: " + resourcePath);
+			}
+			return fromTokenizerJson(is);
+		}
+	}
+
+	/**
+	 * Load a tokenizer from a tokenizer.json stream.
+	 */
+	public static WordPieceTokenizer fromTokenizerJson(InputStream is) throws IOException {
+		JsonNode root = new ObjectMapper().readTree(is);
+		JsonNode model = root.path("model");
+		if (!"WordPiece".equals(model.path("type").asText())) {
+			throw new IOException("Unsupported tokenizer model type: " + model.path("type").asText());
+		}
+
+		JsonNode vocab = model.path("vocab");
+		String[] vocabulary = new String[vocab.size()];
+		for (Iterator<Map.Entry<String, JsonNode>> it = vocab.fields(); it.hasNext();) {
+			Map.Entry<String, JsonNode> entry = it.next();
+			int id = entry.getValue().asInt();
+			if (id >= vocabulary.length) {
+				vocabulary = Arrays.copyOf(vocabulary, id + 1);
+			}
+			vocabulary[id] = entry.getKey();
+		}
+
+		JsonNode normalizer = root.path("normalizer");
+		boolean lowercase = normalizer.path("lowercase").asBoolean(true);
+		// A null strip_accents follows lowercase, as in the BERT reference tokenizer
+		JsonNode stripAccents = normalizer.path("strip_accents");
+		return new WordPieceTokenizer(vocabulary,
+				model.path("unk_token").asText("[UNK]"),
+				model.path("continuing_subword_prefix").asText("##"),
+				model.path("max_input_chars_per_word").asInt(100),
+				normalizer.path("clean_text").asBoolean(true),
+				normalizer.path("handle_chinese_chars").asBoolean(true),
+				lowercase,
+				stripAccents.isBoolean() ? stripAccents.asBoolean() : lowercase);
+	}
+
+	/**
+	 * Load an uncased tokenizer with default BERT settings from a vocab.txt classpath resource,
+	 * where the line number of each token is its id.
+	 */
+	public static WordPieceTokenizer fromVocabulary(String resourcePath) throws IOException {
+		List<String> tokens = new ArrayList<>();
+		try (InputStream is = WordPieceTokenizer.class.getResourceAsStream(resourcePath)) {
+			if (is == null) {
+				throw new IOException("Resource not found: " + resourcePath);
+			}
+			BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				tokens.add(line);
+			}
+		}
+		return new WordPieceTokenizer(tokens.toArray(new String[0]), "[UNK]", "##", 100, true, true, true, true);
+	}
+
+	/**
+	 * Tokenize a text into [CLS] tokens... [SEP], truncating to maxTokens.
+	 *
+	 * @param text      The text to tokenize
+	 * @param out       Buffer receiving the token ids, starting at index 0
+	 * @param maxTokens Maximum number of ids to write, including [CLS] and [SEP] (at least 2)
+	 * @return Number of ids written
+	 */
+	public int tokenize(CharSequence text, long[] out, int maxTokens) {
+		int limit = Math.min(maxTokens, out.length) - 1; // Keep room for [SEP]
+		char[] word = wordBuffer.get();
+		int wordLength = 0;
+		boolean wordTooLong = false;
+
+		int count = 0;
+		out[count++] = clsId;
+
+		int length = text.length();
+		for (int i = 0; i < length && count < limit; ) {
+			int c = Character.codePointAt(text, i);
+			i += Character.charCount(c);
+
+			if (cleanText && (c == 0 || c == 0xFFFD || isControl(c))) {
+				continue;
+			}
+			boolean split = isWhitespace(c);
+			boolean isolated = !split && (isPunctuation(c) || (handleChineseChars && isChineseChar(c)));
+
+			if (split || isolated) {
+				count = emitWord(word, wordLength, wordTooLong, out, count, limit);
+				wordLength = 0;
+				wordTooLong = false;
+				if (isolated && count < limit) {
+					int isolatedLength = appendNormalized(c, word, 0);
+					count = emitWord(word, isolatedLength, false, out, count, limit);
+				}
+				continue;
+			}
+
+			if (wordTooLong) {
+				continue;
+			}
+			int appended = appendNormalized(c, word, wordLength);
+			if (appended < 0) {
+				wordTooLong = true;
+			} else {
+				wordLength = appended;
+			}
+		}
+		count = emitWord(word, wordLength, wordTooLong, out, count, limit);
+
+		out[count++] = sepId;
+		return count;
+	}
+
+	/**
+	 * Append the lowercased, accent-stripped form of a code point to the word buffer.
+	 *
+	 * @return The new word length, or -1 if the word exceeds max_input_chars_per_word
+	 */
+	private int appendNormalized(int c, char[] word, int wordLength) {
+		if (c < 0x80) {
+			if (wordLength >= maxInputCharsPerWord) {
+				return -1;
+			}
+			word[wordLength++] = (char) (lowercase && c >= 'A' && c <= 'Z' ? c + 32 : c);
+			return wordLength;
+		}
+
+		if (lowercase) {
+			c = Character.toLowerCase(c);
+		}
+		if (stripAccents) {
+			// Decompose and drop the combining marks, only non-ASCII input pays for this
+			String decomposed = Normalizer.normalize(new String(Character.toChars(c)), Normalizer.Form.NFD);
+			for (int j = 0; j < decomposed.length(); j++) {
+				char d = decomposed.charAt(j);
+				if (Character.getType(d) == Character.NON_SPACING_MARK) {
+					continue;
+				}
+				if (wordLength >= maxInputCharsPerWord) {
+					return -1;
+				}
+				word[wordLength++] = d;
+			}
+			return wordLength;
+		}
+
+		int charCount = Character.charCount(c);
+		if (wordLength + charCount > maxInputCharsPerWord) {
+			return -1;
+		}
+		Character.toChars(c, word, wordLength);
+		return wordLength + charCount;
+	}
+
+	/**
+	 * Greedy longest-match-first WordPiece split of one word.
+	 * A word that cannot be fully covered by the vocabulary becomes a single [UNK].
+	 */
+	private int emitWord(char[] word, int wordLength, boolean tooLong, long[] out, int count, int limit) {
+		if (tooLong) {
+			if (count < limit) {
+				out[count++] = unkId;
+			}
+			return count;
+		}
+		if (wordLength == 0) {
+			return count;
+		}
+
+		int wordStart = count;
+		int start = 0;
+		while (start < wordLength) {
+			int node = start == 0 ? 0 : continuationRoot;
+			int bestEnd = -1;
+			int bestId = -1;
+			for (int i = start; i < wordLength && node >= 0; i++) {
+				node = child(node, word[i]);
+				if (node >= 0 && nodeTokenIds[node] >= 0) {
+					bestEnd = i + 1;
+					bestId = nodeTokenIds[node];
+				}
+			}
+			if (bestEnd < 0) {
+				count = wordStart;
+				if (count < limit) {
+					out[count++] = unkId;
+				}
+				return count;
+			}
+			if (count >= limit) {
+				return count;
+			}
+			out[count++] = bestId;
+			start = bestEnd;
+		}
+		return count;
+	}
+
+	private int child(int node, char c) {
+		if (node < 0) {
+			return -1;
+		}
+		long key = ((long) node << 16) | c;
+		int slot = mix(key) & transitionMask;
+		while (true) {
+			long k = transitionKeys[slot];
+			if (k == key) {
+				return transitionTargets[slot];
+			}
+			if (k == -1L) {
+				return -1;
+			}
+			slot = (slot + 1) & transitionMask;
+		}
+	}
+
+	private void insertTransition(int node, char c, int target) {
+		long key = ((long) node << 16) | c;
+		int slot = mix(key) & transitionMask;
+		while (transitionKeys[slot] != -1L) {
+			slot = (slot + 1) & transitionMask;
+		}
+		transitionKeys[slot] = key;
+		transitionTargets[slot] = target;
+	}
+
+	private static int mix(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private int requireToken(String token) {
+		int id = tokenId(token);
+		if (id < 0) {
+			throw new IllegalArgumentException("Token missing from vocabulary: " + token);
+		}
+		return id;
+	}
+
+	/**
+	 * Look up the id of a vocabulary token.
+	 *
+	 * @return The token id, or -1 if the token is not in the vocabulary
+	 */
+	public int tokenId(String token) {
+		int node = 0;
+		for (int i = 0; i < token.length() && node >= 0; i++) {
+			node = child(node, token.charAt(i));
+		}
+		return node < 0 ? -1 : nodeTokenIds[node];
+	}
+
+	/**
+	 * Look up the vocabulary token of an id.
+	 */
+	public String token(int id) {
+		return vocabulary[id];
+	}
+
+	public int vocabularySize() {
+		return vocabulary.length;
+	}
+
+	public int getUnkId() {
+		return unkId;
+	}
+
+	public int getClsId() {
+		return clsId;
+	}
+
+	public int getSepId() {
+		return sepId;
+	}
+
+	public int getPadId() {
+		return padId;
+	}
+
+	private static boolean isWhitespace(int c) {
+		if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+			return true;
+		}
+		return c >= 0x80 && Character.getType(c) == Character.SPACE_SEPARATOR;
+	}
+
+	private static boolean isControl(int c) {
+		if (c == '\t' || c == '\n' || c == '\r') {
+			return false;
+		}
+		int type = Character.getType(c);
+		return type == Character.CONTROL || type == Character.FORMAT
+				|| type == Character.PRIVATE_USE || type == Character.SURROGATE;
+	}
+
+	private static boolean isPunctuation(int c) {
+		// ASCII non-letter/number symbols are treated as punctuation, as in BERT
+		if ((c >= 33 && c <= 47) || (c >= 58 && c <= 64) || (c >= 91 && c <= 96) || (c >= 123 && c <= 126)) {
+			return true;
+		}
+		if (c < 0x80) {
+			return false;
+		}
+		int type = Character.getType(c);
+		return type == Character.CONNECTOR_PUNCTUATION || type == Character.DASH_PUNCTUATION
+				|| type == Character.START_PUNCTUATION || type == Character.END_PUNCTUATION
+				|| type == Character.INITIAL_QUOTE_PUNCTUATION || type == Character.FINAL_QUOTE_PUNCTUATION
+				|| type == Character.OTHER_PUNCTUATION;
+	}
+
+	private static boolean isChineseChar(int c) {
+		return (c >= 0x4E00 && c <= 0x9FFF) || (c >= 0x3400 && c <= 0x4DBF)
+				|| (c >= 0x20000 && c <= 0x2A6DF) || (c >= 0x2A700 && c <= 0x2B73F)
+				|| (c >= 0x2B740 && c <= 0x2B81F) || (c >= 0x2B820 && c <= 0x2CEAF)
+				|| (c >= 0xF900 && c <= 0xFAFF) || (c >= 0x2F800 && c <= 0x2FA1F);
+	}
+}
@@ -1,23 +1,42 @@
 package org.acme.semsim.service;
 
 import jakarta.enterprise.context.ApplicationScoped;
+import org.acme.semsim.interfaces.LeanElementInterface;
+import org.acme.semsim.interfaces.LeanElementInterfaceWrapper;
+import org.acme.semsim.model.LeanDocument;
+import org.acme.semsim.model.LeanElement;
+import org.acme.semsim.model.Sentence;
 import org.jboss.logging.Logger;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Service for parsing XML and extracting text content from specified elements.
@@ -27,6 +46,20 @@ public class XmlProcessorService {
 
 	private static final Logger LOG = Logger.getLogger(XmlProcessorService.class);
 
+	/**
+	 * Not namespace aware, so element names are matched with their prefix like the XPath name() test of
+	 * the DOM path. External entities and DTDs are never fetched.
+	 */
+	private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+	private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+	/** Namespace of the cms: attributes written into annotated documents */
+	public static final String CMS_NAMESPACE = "urn:acme:semsim:cms";
+
+	/** Local names of the cms: attributes written by {@link #writeAnnotatedCopy} */
+	private static final Set<String> CMS_ATTRIBUTES = Set.of("semid", "group", "score");
+
 	/**
 	 * Parses an XML document and extracts text content from specified elements.
 	 *
@@ -38,89 +71,389 @@ public class XmlProcessorService {
 		LOG.debug("Processing XML document with element names: " + elementNames);
 
 		List<String> extractedTexts = new ArrayList<>();
+		for (Element element : getElementsOfDocument(elementNames, document)) {
+			// Equivalent of normalize-space(string()), string() of an element is its text content
+			String text = normalizeSpace(element.getTextContent(), 0);
+			if (!text.isEmpty()) {
+				extractedTexts.add(text);
+			}
+		}
+		LOG.debug("Extracted " + extractedTexts.size() + " text elements");
+		return extractedTexts;
+	}
 
-		// Create a new XPath instance
-		XPath xpath = XPathFactory.newInstance().newXPath();
+	/**
+	 * Extracts the text of the specified elements with exact duplicates collapsed.
+	 * Each distinct text is returned once, in order of first occurrence, together with the
+	 * cms:semid of every element holding it.
+	 *
+	 * @param document     Working copy of the document with cms:semid attributes
+	 * @param elementNames Space-separated string of element names to extract text from
+	 * @return One Sentence without vector per distinct text
+	 * @throws Exception if XML processing fails
+	 */
+	public List<Sentence> extractUniqueTexts(Document document, String elementNames) throws Exception {
+		List<LeanElementInterface> elements = new ArrayList<>();
+		for (Element element : getElementsOfDocument(elementNames, document)) {
+			elements.add(new LeanElementInterfaceWrapper(element));
+		}
+		return uniqueTexts(elements);
+	}
 
-		// Extract elements from the document
-		NodeList elements = getElementsOfDocument(elementNames, document, xpath);
+	/**
+	 * Extracts the text of the specified elements with exact duplicates collapsed, in a single
+	 * streaming pass without building a DOM. Semids are numbered like {@link #createWorkingCopy} would
+	 * assign them, so they address the same elements of an annotated copy, and the texts equal
+	 * normalize-space(string()) of each element, including the text of nested selected elements.
+	 *
+	 * @param xmlContent   The XML content as a string
+	 * @param elementNames Space-separated string of element names to extract text from
+	 * @return One Sentence without vector per distinct text, in order of first occurrence
+	 * @throws XMLStreamException if the XML is not well-formed
+	 */
+	public List<Sentence> extractUniqueTexts(String xmlContent, String elementNames) throws XMLStreamException {
+		return extractUniqueTexts(new StringReader(xmlContent), elementNames);
+	}
 
-		// Extract text from each matching node using string() function
-		for (int i = 0; i < elements.getLength(); i++) {
-			Node node = elements.item(i);
-			// Use normalize-space() and string() functions to get normalized text content
-			String text = (String) xpath.evaluate("normalize-space(string())", node, XPathConstants.STRING);
+	/**
+	 * Streaming variant of {@link #extractUniqueTexts(String, String)} reading from a character stream.
+	 */
+	public List<Sentence> extractUniqueTexts(Reader xml, String elementNames) throws XMLStreamException {
+		return uniqueTexts(extractElements(INPUT_FACTORY.createXMLStreamReader(xml), elementNames));
+	}
 
-			// Replace any remaining newlines with spaces
-			text = text.replaceAll("\\n", " ");
+	/**
+	 * Streaming variant of {@link #extractUniqueTexts(String, String)} reading from a byte stream, such as
+	 * a request body, without holding the document in memory.
+	 *
+	 * @param xml          The XML content
+	 * @param charset      Charset declared outside the document, e.g. by a Content-Type header, or null to
+	 *                     detect it from a byte order mark or the XML declaration
+	 * @param elementNames Space-separated string of element names to extract text from
+	 * @return One Sentence without vector per distinct text, in order of first occurrence
+	 * @throws XMLStreamException if the XML is not well-formed or cannot be read
+	 */
+	public List<Sentence> extractUniqueTexts(InputStream xml, Charset charset, String elementNames) throws XMLStreamException {
+		return uniqueTexts(extractElements(xml, charset, elementNames));
+	}
 
-			if (!text.isEmpty()) {
-				extractedTexts.add(text);
+	/**
+	 * Reads the specified elements of a document in a single streaming pass without building a DOM.
+	 *
+	 * @param xmlContent   The XML content as a string
+	 * @param elementNames Space-separated string of element names to extract
+	 * @return Every selected element in document order, including empty ones, numbered by semid
+	 * @throws XMLStreamException if the XML is not well-formed
+	 */
+	public List<LeanElement> extractElements(String xmlContent, String elementNames) throws XMLStreamException {
+		return extractElements(INPUT_FACTORY.createXMLStreamReader(new StringReader(xmlContent)), elementNames);
+	}
+
+	/**
+	 * Streaming variant of {@link #extractElements(String, String)} reading from a byte stream.
+	 *
+	 * @param charset Charset declared outside the document, or null to detect it from the document
+	 */
+	public List<LeanElement> extractElements(InputStream xml, Charset charset, String elementNames) throws XMLStreamException {
+		XMLStreamReader reader = charset != null
+				? INPUT_FACTORY.createXMLStreamReader(new InputStreamReader(xml, charset))
+				: INPUT_FACTORY.createXMLStreamReader(xml);
+		return extractElements(reader, elementNames);
+	}
+
+	private List<LeanElement> extractElements(XMLStreamReader reader, String elementNames) throws XMLStreamException {
+		ElementSelector selector = ElementSelector.compile(elementNames);
+
+		// Text of open selected elements is appended once to a shared buffer, so an outer element's text
+		// range also covers the text of inner ones
+		StringBuilder text = new StringBuilder();
+		IntList positions = new IntList();
+		List<String> attributes = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		// Per selected element by semid - 1: text start and end, path start and end, attribute start and end
+		IntList ranges = new IntList();
+		// Semids of the open selected elements, innermost last, and their nesting depths to recognise end tags
+		IntList openSemids = new IntList();
+		IntList openDepths = new IntList();
+		// Number of child elements seen so far at each depth of the path to the current element
+		IntList childCounts = new IntList();
+		childCounts.add(0);
+		int depth = 0;
+		boolean classMatched = false;
+
+		try {
+			while (reader.hasNext()) {
+				switch (reader.next()) {
+					case XMLStreamConstants.START_ELEMENT -> {
+						childCounts.set(depth, childCounts.get(depth) + 1);
+						depth++;
+						if (childCounts.size() == depth) {
+							childCounts.add(0);
+						} else {
+							childCounts.set(depth, 0);
+						}
+						String name = reader.getLocalName();
+						String classAttribute = selector.usesClasses() ? classAttribute(reader) : null;
+						if (selector.matches(name, classAttribute)) {
+							classMatched |= selector.matchesClass(classAttribute);
+							names.add(name);
+							openSemids.add(names.size());
+							openDepths.add(depth);
+							ranges.add(text.length());
+							ranges.add(-1);
+							ranges.add(positions.size());
+							for (int level = 0; level < depth; level++) {
+								positions.add(childCounts.get(level));
+							}
+							ranges.add(positions.size());
+							ranges.add(attributes.size() / 2);
+							for (int i = 0; i < reader.getAttributeCount(); i++) {
+								String prefix = reader.getAttributePrefix(i);
+								attributes.add(prefix == null || prefix.isEmpty()
+										? reader.getAttributeLocalName(i) : prefix + ":" + reader.getAttributeLocalName(i));
+								attributes.add(reader.getAttributeValue(i));
+							}
+							ranges.add(attributes.size() / 2);
+						}
+					}
+					case XMLStreamConstants.END_ELEMENT -> {
+						if (openDepths.size() > 0 && openDepths.get(openDepths.size() - 1) == depth) {
+							int semid = openSemids.removeLast();
+							openDepths.removeLast();
+							ranges.set(6 * (semid - 1) + 1, text.length());
+						}
+						depth--;
+					}
+					case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> {
+						if (openSemids.size() > 0) {
+							text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+						}
+					}
+					default -> {
+						// Comments and processing instructions are not part of string()
+					}
+				}
 			}
+		} finally {
+			reader.close();
 		}
-		LOG.debug("Extracted " + extractedTexts.size() + " text elements");
-		return extractedTexts;
+
+		LeanDocument document = new LeanDocument(text.toString(), positions.toArray(), attributes.toArray(new String[0]));
+		List<LeanElement> elements = new ArrayList<>(names.size());
+		for (int i = 0; i < names.size(); i++) {
+			int r = 6 * i;
+			elements.add(new LeanElement(document, i + 1, names.get(i), ranges.get(r), ranges.get(r + 1),
+					ranges.get(r + 2), ranges.get(r + 3), ranges.get(r + 4), ranges.get(r + 5)));
+		}
+		if (selector.usesClasses() && !classMatched) {
+			LOG.warn("No element matched the DITA classes of '" + elementNames + "'. Classes are only matched in " +
+					"class attributes written in the document, class defaults of the DTD are not applied.");
+		}
+		LOG.debug("Streamed " + elements.size() + " elements with " + text.length() + " characters of text");
+		return elements;
 	}
 
-/**
- * Creates a working copy of the XML document with added attributes `cms:semid`.
- *
- * @param xmlContent The XML content as a string
- * @param elementNames A space-separated string of element names to add attributes to
- * @return The modified Document object
- * @throws ParserConfigurationException if a DocumentBuilder cannot be created
- * @throws SAXException if any parse errors occur
- * @throws IOException if any IO errors occur
- * @throws XPathExpressionException if the XPath expression evaluation fails
- */
-public static Document createWorkingCopy(String xmlContent, String elementNames) throws ParserConfigurationException, SAXException, IOException, XPathExpressionException {
-    Document document = buildDocument(xmlContent);
-    NodeList elements = getElementsOfDocument(elementNames, document);
-    addSemids(document, elements);
-    return document;
-}
+	/**
+	 * Copies a document to a stream with cms:semid attributes on the selected elements, plus cms:group and
+	 * cms:score on those in a similarity group, in a single streaming pass without building a DOM.
+	 * Semids are numbered like {@link #extractElements(String, String)} numbers them. The cms prefix is
+	 * declared on the root element unless the document declares it already. Annotations of an earlier export
+	 * are dropped, so exporting an exported document again yields the same copy. The copy is written as UTF-8.
+	 *
+	 * @param xml          The original XML content
+	 * @param charset      Charset declared outside the document, or null to detect it from the document
+	 * @param elementNames Space-separated string of element names that were extracted
+	 * @param groupIds     Group id by semid - 1, 0 for elements without a group
+	 * @param scores       Similarity to the first text of the group by semid - 1
+	 * @param out          Stream the annotated copy is written to, left open
+	 * @throws XMLStreamException if the XML is not well-formed, binds the cms prefix to another namespace or
+	 *                            cannot be written
+	 */
+	public void writeAnnotatedCopy(InputStream xml, Charset charset, String elementNames, int[] groupIds, float[] scores,
+			OutputStream out) throws XMLStreamException {
+		ElementSelector selector = ElementSelector.compile(elementNames);
+		XMLStreamReader reader = charset != null
+				? INPUT_FACTORY.createXMLStreamReader(new InputStreamReader(xml, charset))
+				: INPUT_FACTORY.createXMLStreamReader(xml);
+		XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+		int semid = 0;
+		boolean root = true;
+		try {
+			writer.writeStartDocument("UTF-8", reader.getVersion() != null ? reader.getVersion() : "1.0");
+			while (reader.hasNext()) {
+				switch (reader.next()) {
+					case XMLStreamConstants.START_ELEMENT -> {
+						String name = reader.getLocalName();
+						writer.writeStartElement(name);
+						boolean declaresCms = false;
+						for (int i = 0; i < reader.getAttributeCount(); i++) {
+							String prefix = reader.getAttributePrefix(i);
+							String localName = reader.getAttributeLocalName(i);
+							if ("cms".equals(prefix) && CMS_ATTRIBUTES.contains(localName)) {
+								// Annotations of an earlier export are replaced, not repeated
+								continue;
+							}
+							String attributeName = prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+							if (attributeName.equals("xmlns:cms")) {
+								if (!CMS_NAMESPACE.equals(reader.getAttributeValue(i))) {
+									throw new XMLStreamException("The document binds the cms prefix to " +
+											reader.getAttributeValue(i) + " instead of " + CMS_NAMESPACE, reader.getLocation());
+								}
+								declaresCms = true;
+							}
+							writer.writeAttribute(attributeName, reader.getAttributeValue(i));
+						}
+						if (root && !declaresCms) {
+							writer.writeAttribute("xmlns:cms", CMS_NAMESPACE);
+						}
+						root = false;
+						if (selector.matches(name, selector.usesClasses() ? classAttribute(reader) : null)) {
+							semid++;
+							writer.writeAttribute("cms:semid", String.valueOf(semid));
+							if (semid <= groupIds.length && groupIds[semid - 1] > 0) {
+								writer.writeAttribute("cms:group", String.valueOf(groupIds[semid - 1]));
+								writer.writeAttribute("cms:score", String.valueOf(scores[semid - 1]));
+							}
+						}
+					}
+					case XMLStreamConstants.END_ELEMENT -> writer.writeEndElement();
+					case XMLStreamConstants.CHARACTERS, XMLStreamConstants.SPACE ->
+							writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+					case XMLStreamConstants.CDATA -> writer.writeCData(reader.getText());
+					case XMLStreamConstants.COMMENT -> writer.writeComment(reader.getText());
+					case XMLStreamConstants.PROCESSING_INSTRUCTION ->
+							writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+					case XMLStreamConstants.DTD -> writer.writeDTD(reader.getText());
+					default -> {
+						// Entity references are already replaced, the document end is written below
+					}
+				}
+			}
+			writer.writeEndDocument();
+			writer.flush();
+		} finally {
+			reader.close();
+			writer.close();
+		}
+		LOG.debug("Wrote annotated copy with " + semid + " semids");
+	}
 
 	/**
-	 * Extracts a list of elements from an XML document.
+	 * Collapses elements with the same normalized text into one Sentence holding all their semids.
+	 * Elements without text are skipped.
 	 *
-	 * @param elementNames A space-separated string of element names to extract
-	 * @param document The XML document
-	 * @param xpath The XPath instance to use
-	 * @return A NodeList of elements
-	 * @throws XPathExpressionException if the XPath expression evaluation fails
+	 * @param elements Selected elements in document order
+	 * @return One Sentence without vector per distinct text, in order of first occurrence
 	 */
-	public static NodeList getElementsOfDocument(String elementNames, Document document, XPath xpath) throws XPathExpressionException {
+	public List<Sentence> uniqueTexts(List<? extends LeanElementInterface> elements) {
+		Map<String, Sentence> uniqueTexts = new LinkedHashMap<>();
+		int occurrences = 0;
+		for (LeanElementInterface element : elements) {
+			String text = normalizeSpace(element.getTextContent(), 0);
+			if (text.isEmpty()) {
+				continue;
+			}
+			uniqueTexts.computeIfAbsent(text, t -> new Sentence(t, null)).addOccurrence(element.getSemid());
+			occurrences++;
+		}
+		LOG.debug("Extracted " + occurrences + " text elements with " + uniqueTexts.size() + " distinct texts");
+		return new ArrayList<>(uniqueTexts.values());
+	}
 
-		// Split the element names by space
-		String[] elements = elementNames.split("\\s+");
+	/**
+	 * @return The unprefixed class attribute of the current start element, or null
+	 */
+	private static String classAttribute(XMLStreamReader reader) {
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			String prefix = reader.getAttributePrefix(i);
+			if ("class".equals(reader.getAttributeLocalName(i)) && (prefix == null || prefix.isEmpty())) {
+				return reader.getAttributeValue(i);
+			}
+		}
+		return null;
+	}
 
-		// Build the XPath expression
-		StringBuilder xpathExpr = new StringBuilder("//*[");
-		for (int i = 0; i < elements.length; i++) {
-			String element = elements[i];
-			if (i > 0) {
-				xpathExpr.append(" or ");
+	/**
+	 * XPath normalize-space() of the buffer from a start position: runs of space, tab, carriage return
+	 * and line feed become one space, and leading and trailing ones are dropped.
+	 */
+	static String normalizeSpace(CharSequence text, int start) {
+		StringBuilder normalized = new StringBuilder(text.length() - start);
+		boolean pendingSpace = false;
+		for (int i = start; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+				pendingSpace = normalized.length() > 0;
+			} else {
+				if (pendingSpace) {
+					normalized.append(' ');
+					pendingSpace = false;
+				}
+				normalized.append(c);
 			}
-			xpathExpr.append("name()='").append(element).append("'");
 		}
-		xpathExpr.append("]");
+		return normalized.toString();
+	}
 
-		// Evaluate the XPath expression and return
-		return (NodeList) xpath.evaluate(xpathExpr.toString(), document, XPathConstants.NODESET);
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newFactory();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setXMLResolver((publicId, systemId, baseUri, namespace) -> new ByteArrayInputStream(new byte[0]));
+		return factory;
 	}
 
 	/**
-	 * Extracts a list of elements from an XML document.
-	 * Creates a new xpath instance.
+	 * Creates a working copy of the XML document with added attributes `cms:semid`.
 	 *
-	 * @param elementNames A space-separated string of element names to extract
+	 * @param xmlContent The XML content as a string
+	 * @param elementNames A space-separated string of element names to add attributes to
+	 * @return The modified Document object
+	 * @throws ParserConfigurationException if a DocumentBuilder cannot be created
+	 * @throws SAXException if any parse errors occur
+	 * @throws IOException if any IO errors occur
+	 */
+	public static Document createWorkingCopy(String xmlContent, String elementNames) throws ParserConfigurationException, SAXException, IOException {
+		Document document = buildDocument(xmlContent);
+		List<Element> elements = getElementsOfDocument(elementNames, document);
+		addSemids(document, elements);
+		return document;
+	}
+
+	/**
+	 * Extracts the elements of an XML document selected by an elements parameter, in document order,
+	 * with one walk over the tree.
+	 *
+	 * @param elementNames A space-separated string of element names or DITA classes to extract
 	 * @param document The XML document
-	 * @return A NodeList of elements
-	 * @throws XPathExpressionException if the XPath expression evaluation fails
+	 * @return The selected elements
+	 * @throws IllegalArgumentException if the elements parameter is not valid
 	 */
-	public static NodeList getElementsOfDocument(String elementNames, Document document) throws XPathExpressionException {
-		XPath xpath = XPathFactory.newInstance().newXPath();
-		return getElementsOfDocument(elementNames, document, xpath);
+	public static List<Element> getElementsOfDocument(String elementNames, Document document) {
+		ElementSelector selector = ElementSelector.compile(elementNames);
+		List<Element> elements = new ArrayList<>();
+		Node node = document.getDocumentElement();
+		// Pre-order walk without recursion, so deeply nested documents cannot overflow the stack
+		while (node != null) {
+			if (node instanceof Element element) {
+				String classAttribute = selector.usesClasses() && element.hasAttribute("class")
+						? element.getAttribute("class") : null;
+				if (selector.matches(element.getTagName(), classAttribute)) {
+					elements.add(element);
+				}
+			}
+			Node next = node.getFirstChild();
+			while (next == null && node != null) {
+				next = node.getNextSibling();
+				node = node.getParentNode();
+				if (node == document) {
+					node = null;
+				}
+			}
+			node = next;
+		}
+		return elements;
 	}
 
 	/**
@@ -135,25 +468,22 @@ public static Document createWorkingCopy(String xmlContent, String elementNames)
 	public static Document buildDocument(String xmlContent) throws ParserConfigurationException, SAXException, IOException {
 		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 		DocumentBuilder builder = factory.newDocumentBuilder();
-		return builder.parse(new java.io.ByteArrayInputStream(xmlContent.getBytes()));
+		// The string is already decoded, re-encoding it with the platform charset could garble it
+		return builder.parse(new InputSource(new StringReader(xmlContent)));
 	}
 
 	/**
 	 * Create a working copy of the XML document with added attributes cms:semid, where the first element found has semid 1, next one 2, etc.
 	 *
 	 * @param document The original XML document
-	 * @param elements A space-separated string of element names to add attributes to
+	 * @param elements The selected elements in document order
 	 * @return The modified Document object
-	 * @throws ParserConfigurationException if a DocumentBuilder cannot be created
-	 * @throws IOException if any IO errors occur
-	 * @throws SAXException if any parse errors occur
-	 * @throws XPathExpressionException if the XPath expression evaluation fails
 	 */
-	public static Document addSemids(Document document, NodeList elements) throws ParserConfigurationException, IOException, SAXException, XPathExpressionException {
+	public static Document addSemids(Document document, List<Element> elements) {
 
-		// Use NodeList elements to add attribute for all matching elements in the document.
-		for (int i = 0; i < elements.getLength(); i++) {
-			Node node = elements.item(i);
+		// Add attribute for all matching elements in the document.
+		for (int i = 0; i < elements.size(); i++) {
+			Node node = elements.get(i);
 			// Add attribute cms:semid to the node
 			Attr semidAttr = document.createAttribute("cms:semid");
 			// Set the value of the semid attribute to the current index + 1
@@ -164,4 +494,38 @@ public static Document createWorkingCopy(String xmlContent, String elementNames)
 		return document;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Growable list of primitive ints, to collect element ranges without boxing.
+	 */
+	private static final class IntList {
+		private int[] values = new int[16];
+		private int size;
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		int get(int index) {
+			return values[index];
+		}
+
+		void set(int index, int value) {
+			values[index] = value;
+		}
+
+		int removeLast() {
+			return values[--size];
+		}
+
+		int size() {
+			return size;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+}
@@ -12,12 +12,22 @@ document.addEventListener('DOMContentLoaded', () => {
     const groupVisualizationContainer = document.getElementById('group-visualization');
     const postInfoBox = document.getElementById('post-info-box');
     const getInfoBox = document.getElementById('get-info-box');
+    const cutThresholdInput = document.getElementById('cut-threshold');
+    const cutThresholdValueDisplay = document.getElementById('cut-threshold-value');
 
     // --- Update threshold value display when slider changes ---
     similarityThresholdInput.addEventListener('input', () => {
         thresholdValueDisplay.textContent = similarityThresholdInput.value;
     });
 
+    // --- Regroup locally from the clustering hierarchy when the cut slider changes ---
+    cutThresholdInput.addEventListener('input', () => {
+        cutThresholdValueDisplay.textContent = cutThresholdInput.value;
+        if (currentHierarchy) {
+            displayGroupVisualization(cutHierarchy(currentHierarchy, parseFloat(cutThresholdInput.value)));
+        }
+    });
+
     // --- Sample Data URLs ---
     const sampleSmallUrl = '/samples/small.xml';
     const sampleMediumUrl = '/samples/medium.xml';
@@ -26,6 +36,7 @@ document.addEventListener('DOMContentLoaded', () => {
 
     // --- State Variable ---
     let currentLoadedXml = null; // To store the currently loaded XML content
+    let currentHierarchy = null; // Clustering hierarchy of the last session with results
     // ----------------------
 
     // --- Helper Function for Info Boxes ---
@@ -208,6 +219,7 @@ document.addEventListener('DOMContentLoaded', () => {
 
                     // Check for similarityGroups first
                     if (apiResponse && Array.isArray(apiResponse.similarityGroups)) {
+                        await loadHierarchy();
                         if (apiResponse.similarityGroups.length > 0) {
                             displayGroupVisualization(apiResponse.similarityGroups);
                              // Use message property if available, otherwise generate message
@@ -253,6 +265,61 @@ document.addEventListener('DOMContentLoaded', () => {
         }
     }
 
+    // --- Fetch the clustering hierarchy so the cut slider can regroup without further requests ---
+    async function loadHierarchy() {
+        currentHierarchy = null;
+        cutThresholdInput.disabled = true;
+        cutThresholdValueDisplay.textContent = '-';
+        try {
+            const response = await fetch('/api/similarity/hierarchy', { method: 'GET' });
+            if (!response.ok) {
+                console.log(`No clustering hierarchy available (${response.status})`);
+                return;
+            }
+            const apiResponse = await response.json();
+            currentHierarchy = apiResponse.hierarchy;
+            cutThresholdInput.min = currentHierarchy.floor;
+            cutThresholdInput.value = Math.max(currentHierarchy.floor, parseFloat(similarityThresholdInput.value));
+            cutThresholdValueDisplay.textContent = cutThresholdInput.value;
+            cutThresholdInput.disabled = false;
+            console.log(`Loaded clustering hierarchy with ${currentHierarchy.scores.length} merges`);
+        } catch (error) {
+            console.error("Hierarchy Error:", error);
+        }
+    }
+
+    // --- Cut the hierarchy at a threshold: join every merge at or above it with a union-find ---
+    // Gives single-linkage clusters, which can be larger than the server's greedy groups.
+    function cutHierarchy(hierarchy, threshold) {
+        const parent = hierarchy.texts.map((_, i) => i);
+        const find = i => {
+            while (parent[i] !== i) {
+                parent[i] = parent[parent[i]];
+                i = parent[i];
+            }
+            return i;
+        };
+        // Merges are sorted most similar first
+        for (let m = 0; m < hierarchy.scores.length && hierarchy.scores[m] >= threshold; m++) {
+            const a = find(hierarchy.from[m]);
+            const b = find(hierarchy.to[m]);
+            parent[Math.max(a, b)] = Math.min(a, b);
+        }
+        // Collect clusters in document order, each text repeated once per element
+        const clusters = new Map();
+        hierarchy.texts.forEach((text, i) => {
+            const root = find(i);
+            if (!clusters.has(root)) {
+                clusters.set(root, []);
+            }
+            const occurrences = Math.max(1, hierarchy.semids[i].length);
+            for (let k = 0; k < occurrences; k++) {
+                clusters.get(root).push(text);
+            }
+        });
+        return [...clusters.values()].filter(group => group.length > 1);
+    }
+
     // --- Utility Functions (REMOVED logToConsole) ---
     // logToConsole function removed.
     // Info boxes and console logging are used instead.
@@ -2,11 +2,14 @@ package org.acme.semsim;
 
 import static io.restassured.RestAssured.given;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.acme.semsim.dto.ApiResponse;
+import org.acme.semsim.model.Sentence;
 
 import io.quarkus.logging.Log;
 import io.restassured.response.Response;
@@ -74,4 +77,37 @@ public class TestUtils {
 		return paragraphCount;
 	}
 
+	/**
+	 * Creates sentences with noisy copies of random Gaussian cluster centres as vectors, so rows have
+	 * a varying number of neighbours above a similarity threshold. Each vector gets its own noise
+	 * level between 0 and {@code noise}.
+	 *
+	 * @param seed     Seed of the random generator, the same seed gives the same sentences
+	 * @param n        Number of sentences, named "text 0" to "text n-1"
+	 * @param dims     Vector dimensions
+	 * @param clusters Number of cluster centres
+	 * @param noise    Maximum standard deviation of the noise added to a centre
+	 * @return The sentences in creation order
+	 */
+	public static List<Sentence> clusteredVectors(long seed, int n, int dims, int clusters, double noise) {
+		Random random = new Random(seed);
+		float[][] centers = new float[clusters][dims];
+		for (float[] center : centers) {
+			for (int k = 0; k < dims; k++) {
+				center[k] = (float) random.nextGaussian();
+			}
+		}
+		List<Sentence> sentences = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			float[] center = centers[random.nextInt(clusters)];
+			float[] vector = new float[dims];
+			double vectorNoise = random.nextDouble() * noise;
+			for (int k = 0; k < dims; k++) {
+				vector[k] = center[k] + (float) (vectorNoise * random.nextGaussian());
+			}
+			sentences.add(new Sentence("text " + i, vector));
+		}
+		return sentences;
+	}
+
 }
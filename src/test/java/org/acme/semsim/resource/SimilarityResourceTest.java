@@ -68,6 +68,69 @@ public class SimilarityResourceTest {
 				.contentType(ContentType.JSON);
 	}
 
+	@Test
+	public void testNeighboursValidation() {
+		given()
+				.when()
+				.get("/api/similarity/neighbours")
+				.then()
+				.statusCode(400)
+				.contentType(ContentType.JSON);
+
+		given()
+				.cookie("session_id", "00000000-0000-0000-0000-000000000000")
+				.when()
+				.get("/api/similarity/neighbours?k=0")
+				.then()
+				.statusCode(400)
+				.contentType(ContentType.JSON);
+
+		given()
+				.cookie("session_id", "00000000-0000-0000-0000-000000000000")
+				.when()
+				.get("/api/similarity/neighbours")
+				.then()
+				.statusCode(404)
+				.contentType(ContentType.JSON);
+	}
+
+	@Test
+	public void testRegroupValidation() {
+		given()
+				.cookie("session_id", "00000000-0000-0000-0000-000000000000")
+				.when()
+				.get("/api/similarity/regroup")
+				.then()
+				.statusCode(400)
+				.contentType(ContentType.JSON);
+
+		given()
+				.cookie("session_id", "00000000-0000-0000-0000-000000000000")
+				.when()
+				.get("/api/similarity/regroup?threshold=0.8")
+				.then()
+				.statusCode(404)
+				.contentType(ContentType.JSON);
+	}
+
+	@Test
+	public void testExportValidation() {
+		given()
+				.when()
+				.get("/api/similarity/export")
+				.then()
+				.statusCode(400)
+				.contentType(ContentType.JSON);
+
+		given()
+				.cookie("session_id", "00000000-0000-0000-0000-000000000000")
+				.when()
+				.get("/api/similarity/export")
+				.then()
+				.statusCode(404)
+				.contentType(ContentType.JSON);
+	}
+
 	@Test
 	public void testEndToEndFlow() throws Exception {
 		// Test the full flow: submit XML and get results
@@ -119,6 +182,38 @@ public class SimilarityResourceTest {
 				.contentType(ContentType.JSON);
 	}
 
+	@Test
+	public void testXmlLargerThanUploadLimit() {
+		// The test profile limits uploads to 1 MiB
+		StringBuilder xml = new StringBuilder("<document>");
+		while (xml.length() <= 1048576) {
+			xml.append("<p>This paragraph pads the document beyond the upload limit.</p>");
+		}
+		xml.append("</document>");
+
+		given()
+				.contentType(ContentType.XML)
+				.body(xml.toString())
+				.when()
+				.post("/api/similarity")
+				.then()
+				.statusCode(413);
+	}
+
+	@Test
+	public void testXmlWithDeclaredEncoding() throws Exception {
+		// Without a charset in the Content-Type header the parser follows the XML declaration
+		String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n<document><p>Ölstand prüfen.</p></document>";
+
+		given()
+				.contentType("application/xml")
+				.body(xml.getBytes(java.nio.charset.StandardCharsets.ISO_8859_1))
+				.when()
+				.post("/api/similarity")
+				.then()
+				.statusCode(202);
+	}
+
 	@Test
 	public void testProcessXmlWithXPath() {
 
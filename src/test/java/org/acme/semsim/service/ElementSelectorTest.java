@@ -0,0 +1,37 @@
+package org.acme.semsim.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ElementSelectorTest {
+
+	@Test
+	public void testValidation() {
+		assertTrue(ElementSelector.isValid("p"));
+		assertTrue(ElementSelector.isValid("title p  li"));
+		assertTrue(ElementSelector.isValid("dita:p topic/p task/cmd"));
+		assertFalse(ElementSelector.isValid(""));
+		assertFalse(ElementSelector.isValid("//p"));
+		assertFalse(ElementSelector.isValid("p[@id]"));
+		assertFalse(ElementSelector.isValid("topic/p/x"));
+		assertThrows(IllegalArgumentException.class, () -> ElementSelector.compile("p or 1=1"));
+	}
+
+	@Test
+	public void testMatchesNamesAndDitaClasses() {
+		ElementSelector selector = ElementSelector.compile("title topic/p");
+		assertTrue(selector.usesClasses());
+		assertTrue(selector.matches("title", null));
+		assertTrue(selector.matches("p", "- topic/p "));
+		assertTrue(selector.matches("note", "- topic/note topic/p "), "Specialisations list their base class");
+		assertFalse(selector.matches("p", null), "Class selectors match the class attribute only");
+		assertFalse(selector.matches("ph", "- topic/ph "));
+		assertFalse(selector.matches("pre", "- topic/pre "));
+		assertTrue(selector.matchesClass("- topic/p "));
+		assertFalse(selector.matchesClass(null));
+
+		assertSame(selector, ElementSelector.compile("title topic/p"), "Compiled selectors are cached");
+		assertFalse(ElementSelector.compile("p").usesClasses());
+	}
+}
@@ -0,0 +1,69 @@
+package org.acme.semsim.service;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.acme.semsim.service.XmlProcessorService.buildDocument;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmbeddingBatchSchedulerTest {
+
+	@Test
+	public void testEveryTextScheduledOnce() {
+		Random random = new Random(7);
+		int[] tokenCounts = new int[1000];
+		for (int i = 0; i < tokenCounts.length; i++) {
+			tokenCounts[i] = 3 + random.nextInt(400);
+		}
+
+		List<int[]> batches = new EmbeddingBatchScheduler(4096, 64).schedule(tokenCounts);
+
+		boolean[] seen = new boolean[tokenCounts.length];
+		for (int[] batch : batches) {
+			assertTrue(batch.length <= 64, "Batch should not exceed the max batch size");
+			int maxLength = 0;
+			for (int index : batch) {
+				assertFalse(seen[index], "Text " + index + " should be scheduled only once");
+				seen[index] = true;
+				maxLength = Math.max(maxLength, tokenCounts[index]);
+			}
+			assertTrue(batch.length == 1 || (long) batch.length * maxLength <= 4096,
+					"Padded batch should stay within the token budget");
+		}
+		for (boolean s : seen) {
+			assertTrue(s, "Every text should be scheduled");
+		}
+	}
+
+	@Test
+	public void testOversizedTextGetsOwnBatch() {
+		int[] tokenCounts = { 10, 5000, 12 };
+
+		List<int[]> batches = new EmbeddingBatchScheduler(1024, 32).schedule(tokenCounts);
+
+		assertEquals(2, batches.size());
+		assertArrayEquals(new int[] { 0, 2 }, batches.get(0));
+		assertArrayEquals(new int[] { 1 }, batches.get(1));
+	}
+
+	@Test
+	public void testLowPaddingOnMixedLengthSample() throws Exception {
+		Document document = buildDocument(Files.readString(Path.of("samples/sample_l.dita")));
+		List<String> texts = new XmlProcessorService().extractTextElements(document, "title p li shortdesc");
+
+		int[] tokenCounts = new int[texts.size()];
+		for (int i = 0; i < texts.size(); i++) {
+			tokenCounts[i] = texts.get(i).split("\\s+").length + 2;
+		}
+
+		List<int[]> bucketed = new EmbeddingBatchScheduler(8192, 32).schedule(tokenCounts);
+		double efficiency = EmbeddingBatchScheduler.paddingEfficiency(tokenCounts, bucketed);
+
+		assertTrue(efficiency > 0.9, "Length bucketing should keep padding low, was " + efficiency);
+	}
+}
@@ -0,0 +1,69 @@
+package org.acme.semsim.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmbeddingCacheTest {
+
+	private static final String MODEL_ID = "test-model";
+
+	@Test
+	public void testKeyNormalization() {
+		EmbeddingKey key = EmbeddingKey.of("Check the  oil\nlevel.", MODEL_ID);
+
+		assertEquals(key, EmbeddingKey.of("  Check the oil level. ", MODEL_ID),
+				"Whitespace differences should map to the same key");
+		assertEquals(key, EmbeddingKey.of("Check the oil level.", MODEL_ID));
+		assertNotEquals(key, EmbeddingKey.of("Check the oil level.", "other-model"),
+				"Different models should never share a key");
+		assertNotEquals(key, EmbeddingKey.of("check the oil level.", MODEL_ID));
+	}
+
+	@Test
+	public void testHitsMissesAndMetrics() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		EmbeddingCache cache = new EmbeddingCache(1 << 20, 4);
+		cache.bindTo(registry);
+
+		EmbeddingKey key = EmbeddingKey.of("Safety note", MODEL_ID);
+		assertNull(cache.get(key));
+
+		float[] vector = { 0.1f, 0.2f, 0.3f };
+		cache.put(key, vector);
+		assertSame(vector, cache.get(key));
+
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1.0, registry.get("semsim.embedding.cache.hits").functionCounter().count());
+		assertEquals(1.0, registry.get("semsim.embedding.cache.misses").functionCounter().count());
+		assertEquals(1.0, registry.get("semsim.embedding.cache.size").gauge().value());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsedWithinByteBudget() {
+		int dimensions = 384;
+		// Room for about three vectors in a single segment
+		EmbeddingCache cache = new EmbeddingCache(3 * (4L * dimensions + 96), 1);
+
+		EmbeddingKey[] keys = new EmbeddingKey[4];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = EmbeddingKey.of("Text " + i, MODEL_ID);
+		}
+		cache.put(keys[0], new float[dimensions]);
+		cache.put(keys[1], new float[dimensions]);
+		cache.put(keys[2], new float[dimensions]);
+
+		// Touch the oldest entry so the second one becomes least recently used
+		assertNotNull(cache.get(keys[0]));
+		cache.put(keys[3], new float[dimensions]);
+
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(cache.get(keys[1]), "Least recently used vector should be evicted");
+		assertNotNull(cache.get(keys[0]));
+		assertNotNull(cache.get(keys[3]));
+		assertTrue(cache.sizeInBytes() <= 3 * (4L * dimensions + 96));
+	}
+}
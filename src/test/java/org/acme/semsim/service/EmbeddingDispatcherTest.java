@@ -0,0 +1,149 @@
+package org.acme.semsim.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.acme.semsim.model.Sentence;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmbeddingDispatcherTest {
+
+	private final List<Integer> callSizes = new CopyOnWriteArrayList<>();
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private EmbeddingDispatcher dispatcher;
+
+	@AfterEach
+	public void stopDispatcher() {
+		dispatcher.shutdown();
+	}
+
+	private EmbeddingDispatcher createDispatcher(long maxWaitMillis, CountDownLatch release) {
+		EmbeddingDispatcher dispatcher = new EmbeddingDispatcher();
+		dispatcher.maxWaitMillis = maxWaitMillis;
+		dispatcher.maxBatch = 64;
+		dispatcher.inferenceSessions = 1;
+		dispatcher.start(texts -> {
+			callSizes.add(texts.size());
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			// Encode each text's length in its vector so callers can check they got their own texts back
+			List<Sentence> sentences = new ArrayList<>();
+			for (String text : texts) {
+				sentences.add(new Sentence(text, new float[] { text.length() }));
+			}
+			return sentences;
+		}, registry);
+		return dispatcher;
+	}
+
+	@Test
+	public void testLoneRequestIsNotDelayed() {
+		dispatcher = createDispatcher(10_000, new CountDownLatch(0));
+
+		long start = System.nanoTime();
+		List<Sentence> sentences = dispatcher.generateEmbeddings(List.of("a", "bb"));
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertEquals(List.of("a", "bb"), sentences.stream().map(Sentence::getText).toList());
+		assertTrue(elapsedMillis < 5_000, "A lone request should not wait for maxWait, took " + elapsedMillis + " ms");
+	}
+
+	@Test
+	public void testConcurrentRequestsShareOneCall() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		dispatcher = createDispatcher(200, release);
+
+		// The first request occupies the only session, the next ones queue up behind it
+		CompletableFuture<List<Sentence>> first = dispatcher.submit(List.of("first"));
+		while (callSizes.isEmpty()) {
+			Thread.sleep(1);
+		}
+		List<CompletableFuture<List<Sentence>>> waiting = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			waiting.add(dispatcher.submit(List.of("x".repeat(i + 1), "y".repeat(i + 10))));
+		}
+		release.countDown();
+
+		assertEquals(1, first.get(5, TimeUnit.SECONDS).size());
+		for (int i = 0; i < waiting.size(); i++) {
+			List<Sentence> sentences = waiting.get(i).get(5, TimeUnit.SECONDS);
+			assertEquals(2, sentences.size());
+			assertEquals(i + 1, sentences.get(0).getVector()[0], "Each caller should get its own texts back");
+			assertEquals(i + 10, sentences.get(1).getVector()[0]);
+		}
+
+		assertEquals(List.of(1, 10), callSizes, "Queued requests should be coalesced into one call");
+		assertEquals(5.0, registry.get("semsim.embedding.dispatcher.batch.requests").summary().max());
+	}
+
+	@Test
+	public void testLargeRequestTakesTurnsWithSmallOnes() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		dispatcher = createDispatcher(200, release);
+
+		List<String> large = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			large.add("l".repeat(i + 1));
+		}
+		CompletableFuture<List<Sentence>> largeResult = dispatcher.submit(large);
+		while (callSizes.isEmpty()) {
+			Thread.sleep(1);
+		}
+		CompletableFuture<List<Sentence>> smallResult = dispatcher.submit(List.of("s", "ss"));
+		release.countDown();
+
+		List<Sentence> largeSentences = largeResult.get(5, TimeUnit.SECONDS);
+		assertEquals(300, largeSentences.size());
+		for (int i = 0; i < largeSentences.size(); i++) {
+			assertEquals(i + 1, largeSentences.get(i).getVector()[0], "Slices should be combined in input order");
+		}
+		assertEquals(List.of("s", "ss"), smallResult.get(5, TimeUnit.SECONDS).stream().map(Sentence::getText).toList());
+
+		// The small request gets into the call after the one being prepared when it arrived, not after all 300 texts
+		assertEquals(List.of(64, 64, 64, 64, 46), callSizes);
+	}
+
+	@Test
+	public void testShutdownFailsQueuedRequests() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		dispatcher = createDispatcher(5, release);
+
+		CompletableFuture<List<Sentence>> first = dispatcher.submit(List.of("first"));
+		while (callSizes.isEmpty()) {
+			Thread.sleep(1);
+		}
+		CompletableFuture<List<Sentence>> queued = dispatcher.submit(List.of("queued"));
+		dispatcher.shutdown();
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(IllegalStateException.class, e.getCause());
+		assertEquals(1, first.get(5, TimeUnit.SECONDS).size());
+	}
+
+	@Test
+	public void testFailureCompletesEveryCaller() {
+		dispatcher = new EmbeddingDispatcher();
+		dispatcher.maxWaitMillis = 5;
+		dispatcher.maxBatch = 64;
+		dispatcher.inferenceSessions = 1;
+		dispatcher.start(texts -> {
+			throw new IllegalStateException("model not loaded");
+		}, registry);
+
+		IllegalStateException e = assertThrows(IllegalStateException.class,
+				() -> dispatcher.generateEmbeddings(List.of("a")));
+		assertEquals("model not loaded", e.getMessage());
+	}
+}
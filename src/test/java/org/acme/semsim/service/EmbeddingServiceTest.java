@@ -0,0 +1,98 @@
+package org.acme.semsim.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmbeddingServiceTest {
+
+	private static final float TOLERANCE = 1e-6f;
+
+	@Test
+	public void testPoolNormalizedMatchesMeanThenNormalize() {
+		Random random = new Random(42);
+		int tokenCount = 7;
+		int paddedLength = 12;
+
+		// Output of a batch of two padded rows, where padded positions hold arbitrary values
+		FloatBuffer hiddenStates = FloatBuffer.allocate(2 * paddedLength * EmbeddingService.VECTOR_SIZE);
+		while (hiddenStates.hasRemaining()) {
+			hiddenStates.put(random.nextFloat() * 2 - 1);
+		}
+		int rowOffset = paddedLength * EmbeddingService.VECTOR_SIZE;
+
+		// Reference: mean over the real tokens of the second row, then L2 normalization
+		float[] expected = new float[EmbeddingService.VECTOR_SIZE];
+		for (int t = 0; t < tokenCount; t++) {
+			for (int j = 0; j < expected.length; j++) {
+				expected[j] += hiddenStates.get(rowOffset + t * EmbeddingService.VECTOR_SIZE + j) / tokenCount;
+			}
+		}
+		VectorMath.normalize(expected);
+
+		float[] pooled = new float[EmbeddingService.VECTOR_SIZE];
+		EmbeddingService.poolNormalized(hiddenStates, rowOffset, tokenCount, new double[EmbeddingService.VECTOR_SIZE],
+				pooled);
+
+		assertArrayEquals(expected, pooled, TOLERANCE, "Padding should not contribute to the pooled vector");
+	}
+
+	@Test
+	public void testPoolNormalizedWithNoTokens() {
+		FloatBuffer hiddenStates = FloatBuffer.allocate(3 * EmbeddingService.VECTOR_SIZE);
+		float[] pooled = new float[EmbeddingService.VECTOR_SIZE];
+		pooled[0] = 1f;
+		EmbeddingService.poolNormalized(hiddenStates, 0, 0, new double[EmbeddingService.VECTOR_SIZE], pooled);
+
+		for (float v : pooled) {
+			assertEquals(0f, v, "An empty row should give a zero vector");
+		}
+	}
+
+	@Test
+	public void testModelFileNameOfVariant() {
+		assertEquals("model.onnx", EmbeddingService.modelFileName("fp32"));
+		assertEquals("model_int8.onnx", EmbeddingService.modelFileName("int8"));
+		assertThrows(IllegalArgumentException.class, () -> EmbeddingService.modelFileName("../model"));
+	}
+
+	@Test
+	public void testWindowsCoverLongTexts() {
+		assertEquals(1, EmbeddingService.windowCount(0, 254, 192));
+		assertEquals(1, EmbeddingService.windowCount(254, 254, 192));
+		assertEquals(2, EmbeddingService.windowCount(255, 254, 192));
+		assertEquals(2, EmbeddingService.windowCount(446, 254, 192));
+		assertEquals(3, EmbeddingService.windowCount(447, 254, 192));
+
+		for (int tokens = 1; tokens < 2000; tokens++) {
+			int windows = EmbeddingService.windowCount(tokens, 254, 192);
+			assertTrue((windows - 1) * 192 + 254 >= tokens, "The last window should reach the end of the text");
+			assertTrue(windows == 1 || (windows - 2) * 192 + 254 < tokens, "No window should be redundant");
+		}
+	}
+
+	@Test
+	public void testTextWithMoreTokensThanCharactersIsNotCut() throws Exception {
+		WordPieceTokenizer tokenizer = WordPieceTokenizer.fromTokenizerJson("/models/all-MiniLM-L6-v2-onnx/tokenizer.json");
+		// Hangul syllables decompose into jamo pieces, giving more tokens than characters
+		String text = "한국어 문서를 번역합니다. ".repeat(20);
+		long[] reference = new long[4096];
+		int referenceCount = tokenizer.tokenize(text, reference, reference.length);
+		assertTrue(referenceCount > text.length() + 2, "The text should have more tokens than characters");
+
+		EmbeddingService.TokenIds ids = EmbeddingService.tokenizeWhole(tokenizer, text, long[]::new);
+		assertEquals(referenceCount, ids.count(), "No tokens should be cut");
+		assertArrayEquals(Arrays.copyOf(reference, referenceCount), Arrays.copyOf(ids.buffer(), ids.count()));
+
+		// The last window of a 256 token window size reaches the last token of the text
+		int contentTokens = ids.count() - 2;
+		int windows = EmbeddingService.windowCount(contentTokens, 254, 192);
+		assertTrue(windows > 1);
+		assertEquals(contentTokens, (windows - 1) * 192 + Math.min(254, contentTokens - (windows - 1) * 192),
+				"The last window should end at the end of the text");
+	}
+}
@@ -0,0 +1,84 @@
+package org.acme.semsim.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmbeddingStoreTest {
+
+	private static final String MODEL_ID = "test-model";
+	private static final int DIMENSIONS = 384;
+
+	@TempDir
+	Path tempDir;
+
+	private static float[] randomVector(Random random) {
+		float[] vector = new float[DIMENSIONS];
+		for (int i = 0; i < DIMENSIONS; i++) {
+			vector[i] = random.nextFloat();
+		}
+		return vector;
+	}
+
+	@Test
+	public void testVectorsSurviveReopen() throws Exception {
+		Path path = tempDir.resolve("embeddings.store");
+		Random random = new Random(3);
+		int count = 500;
+		float[][] vectors = new float[count][];
+
+		// Small regions so the records span several mappings
+		try (EmbeddingStore store = new EmbeddingStore(path, MODEL_ID, DIMENSIONS, 64 * 1024)) {
+			for (int i = 0; i < count; i++) {
+				vectors[i] = randomVector(random);
+				store.put(EmbeddingKey.of("Paragraph " + i, MODEL_ID), vectors[i]);
+			}
+			// Storing a known key again is a no-op
+			store.put(EmbeddingKey.of("Paragraph 0", MODEL_ID), randomVector(random));
+			assertEquals(count, store.size());
+		}
+
+		try (EmbeddingStore store = new EmbeddingStore(path, MODEL_ID, DIMENSIONS, 64 * 1024)) {
+			assertEquals(count, store.size(), "All records should be indexed after reopening");
+			for (int i = 0; i < count; i++) {
+				assertArrayEquals(vectors[i], store.get(EmbeddingKey.of("Paragraph " + i, MODEL_ID)));
+			}
+			assertNull(store.get(EmbeddingKey.of("Unknown paragraph", MODEL_ID)));
+		}
+	}
+
+	@Test
+	public void testZeroCopyView() throws Exception {
+		float[] vector = randomVector(new Random(5));
+		EmbeddingKey key = EmbeddingKey.of("Safety note", MODEL_ID);
+
+		try (EmbeddingStore store = new EmbeddingStore(tempDir.resolve("view.store"), MODEL_ID, DIMENSIONS)) {
+			store.put(key, vector);
+			FloatBuffer view = store.view(key);
+
+			assertNotNull(view);
+			assertTrue(view.isDirect(), "View should read straight from the mapped file");
+			assertEquals(DIMENSIONS, view.remaining());
+			for (int i = 0; i < DIMENSIONS; i++) {
+				assertEquals(vector[i], view.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testRejectsStoreOfOtherModel() throws Exception {
+		Path path = tempDir.resolve("model.store");
+		try (EmbeddingStore store = new EmbeddingStore(path, MODEL_ID, DIMENSIONS)) {
+			store.put(EmbeddingKey.of("Text", MODEL_ID), new float[DIMENSIONS]);
+		}
+
+		assertThrows(IOException.class, () -> new EmbeddingStore(path, "other-model", DIMENSIONS));
+		assertThrows(IOException.class, () -> new EmbeddingStore(path, MODEL_ID, 768));
+	}
+}
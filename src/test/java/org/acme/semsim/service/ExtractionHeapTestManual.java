@@ -0,0 +1,77 @@
+package org.acme.semsim.service;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.acme.semsim.service.XmlProcessorService.createWorkingCopy;
+
+// NOTE: Measures heap with System.gc(), which is only meaningful in a quiet JVM, therefore only to be run manually:
+//   ./mvnw test -Dtest=ExtractionHeapTestManual -Dcopies=200
+// "Manual" in the name prevents Maven from running it with `./mvnw test`.
+public class ExtractionHeapTestManual {
+
+	private static final Logger LOG = Logger.getLogger(ExtractionHeapTestManual.class);
+
+	private static final String SAMPLE = "samples/sample_l.dita";
+
+	private static final String ELEMENTS = "title p li shortdesc";
+
+	private final int copies = Integer.parseInt(System.getProperty("copies", "200"));
+
+	@Test
+	public void compareRetainedHeapPerSession() throws Exception {
+		String xml = Files.readString(Path.of(SAMPLE));
+		XmlProcessorService xmlProcessorService = new XmlProcessorService();
+
+		// What a processing job keeps alive while it embeds: formerly the working copy, now the lean
+		// elements until the sentences are built, and the sentences from then on
+		measure("DOM working copy", () -> {
+			try {
+				return createWorkingCopy(xml, ELEMENTS);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		measure("LeanElements", () -> {
+			try {
+				return xmlProcessorService.extractElements(xml, ELEMENTS);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		measure("Sentences", () -> {
+			try {
+				return xmlProcessorService.uniqueTexts(xmlProcessorService.extractElements(xml, ELEMENTS));
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
+	private void measure(String name, Supplier<Object> session) {
+		// Warm up class loading and interned names
+		session.get();
+		long before = usedHeap();
+		List<Object> retained = new ArrayList<>(copies);
+		for (int i = 0; i < copies; i++) {
+			retained.add(session.get());
+		}
+		long after = usedHeap();
+		LOG.info(String.format("%s of %s: %.1f KB per session", name, SAMPLE, (after - before) / 1024.0 / copies));
+		retained.clear();
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
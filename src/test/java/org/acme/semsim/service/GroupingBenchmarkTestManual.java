@@ -0,0 +1,98 @@
+package org.acme.semsim.service;
+
+import org.acme.semsim.TestUtils;
+import org.acme.semsim.model.Sentence;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.acme.semsim.service.XmlProcessorService.buildDocument;
+
+// NOTE: Runs the exhaustive loop on large inputs, therefore only to be run manually:
+//   ./mvnw test -Dtest=GroupingBenchmarkTestManual -Dsize=10000 -Dthreshold=0.75 -Dbands=16 -Drows=8
+// "Manual" in the name prevents Maven from running it with `./mvnw test`.
+public class GroupingBenchmarkTestManual {
+
+	private static final Logger LOG = Logger.getLogger(GroupingBenchmarkTestManual.class);
+
+	private static final List<String> SAMPLES = List.of(
+			"samples/sample_s.dita", "samples/sample_m.dita", "samples/sample_l.dita");
+
+	private final double threshold = Double.parseDouble(System.getProperty("threshold", "0.75"));
+	private final int bands = Integer.parseInt(System.getProperty("bands", "16"));
+	private final int rows = Integer.parseInt(System.getProperty("rows", "8"));
+
+	@Test
+	public void compareStrategiesOnSyntheticData() {
+		int size = Integer.parseInt(System.getProperty("size", "10000"));
+		// Noisy copies of random centers, about ten per center
+		List<Sentence> sentences = TestUtils.clusteredVectors(1, size, 384, Math.max(1, size / 10), 0.8);
+		compare("synthetic", sentences);
+	}
+
+	@Test
+	public void compareStrategiesOnSamples() throws Exception {
+		XmlProcessorService xmlProcessorService = new XmlProcessorService();
+		for (String sample : SAMPLES) {
+			Document document = buildDocument(Files.readString(Path.of(sample)));
+			List<Sentence> sentences = new ArrayList<>();
+			for (String text : xmlProcessorService.extractTextElements(document, "title p")) {
+				double[] vector = GroupingServiceTest.bagOfWordsEmbedding(text);
+				float[] floatVector = new float[vector.length];
+				for (int k = 0; k < vector.length; k++) {
+					floatVector[k] = (float) vector[k];
+				}
+				sentences.add(new Sentence(text, floatVector));
+			}
+			compare(sample, sentences);
+		}
+	}
+
+	private void compare(String name, List<Sentence> sentences) {
+		GroupingService groupingService = createGroupingService();
+		List<String> texts = sentences.stream().map(Sentence::getText).toList();
+
+		long start = System.nanoTime();
+		List<List<String>> exhaustive = groupingService.group(sentences, threshold, GroupingService.Strategy.SCALAR);
+		long exhaustiveNanos = System.nanoTime() - start;
+		LOG.info(String.format("%s: %d texts, SCALAR %.1f ms, %d groups", name, sentences.size(),
+				exhaustiveNanos / 1e6, exhaustive.size()));
+
+		SimilarityMatrix matrix = new SimilarityMatrix(sentences);
+		RandomProjectionLsh lsh = new RandomProjectionLsh(matrix, bands, rows, 42);
+		for (GroupingService.Strategy strategy : new GroupingService.Strategy[] {
+				GroupingService.Strategy.BLOCKED, GroupingService.Strategy.LSH }) {
+			for (RandomProjectionLsh.Candidates candidates : RandomProjectionLsh.Candidates.values()) {
+				if (strategy != GroupingService.Strategy.LSH && candidates != RandomProjectionLsh.Candidates.BANDS) {
+					continue;
+				}
+				groupingService.lshCandidates = candidates;
+				start = System.nanoTime();
+				List<List<String>> groups = groupingService.group(sentences, threshold, strategy, null);
+				long nanos = System.nanoTime() - start;
+
+				String label = strategy == GroupingService.Strategy.LSH ? strategy + " " + candidates : strategy.name();
+				double recall = strategy == GroupingService.Strategy.LSH
+						? lsh.estimateRecall(threshold, candidates, sentences.size()) : 1.0;
+				LOG.info(String.format("%s: %s %.1f ms, %.1fx faster, pair recall %.4f, rand index %.4f, %d groups",
+						name, label, nanos / 1e6, (double) exhaustiveNanos / nanos, recall,
+						ModelVariantAgreementTestManual.randIndex(texts, exhaustive, groups), groups.size()));
+			}
+		}
+	}
+
+	private GroupingService createGroupingService() {
+		GroupingService service = new GroupingService();
+		service.similarityThreshold = threshold;
+		service.lshBands = bands;
+		service.lshRows = rows;
+		service.lshCandidates = RandomProjectionLsh.Candidates.HAMMING;
+		service.annRecallSample = 0;
+		return service;
+	}
+}
@@ -2,12 +2,21 @@ package org.acme.semsim.service;
 
 import io.quarkus.test.junit.QuarkusTest;
 import jakarta.inject.Inject;
+import org.acme.semsim.TestUtils;
+import org.acme.semsim.dto.GroupHierarchy;
+import org.acme.semsim.model.NeighbourGraph;
 import org.acme.semsim.model.Sentence;
 import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
+import static org.acme.semsim.service.XmlProcessorService.buildDocument;
 import static org.junit.jupiter.api.Assertions.*;
 
 @QuarkusTest
@@ -16,18 +25,21 @@ public class GroupingServiceTest {
 	@Inject
 	GroupingService groupingService;
 
+	@Inject
+	XmlProcessorService xmlProcessorService;
+
 	@Test
 	public void testGroup() {
 		// Create test sentences with embeddings that are clearly different
 		List<Sentence> sentences = new ArrayList<>();
 
 		// Create two similar sentences
-		sentences.add(new Sentence("This is sentence one", new double[] { 0.1, 0.2, 0.3 }));
-		sentences.add(new Sentence("This is very similar to sentence one", new double[] { 0.11, 0.21, 0.31 }));
+		sentences.add(new Sentence("This is sentence one", new float[] { 0.1f, 0.2f, 0.3f }));
+		sentences.add(new Sentence("This is very similar to sentence one", new float[] { 0.11f, 0.21f, 0.31f }));
 
 		// Create two very different sentences with very different embeddings
-		sentences.add(new Sentence("This is completely different", new double[] { 0.9, 0.8, 0.7 }));
-		sentences.add(new Sentence("Another different sentence", new double[] { -0.9, -0.8, -0.7 }));
+		sentences.add(new Sentence("This is completely different", new float[] { 0.9f, 0.8f, 0.7f }));
+		sentences.add(new Sentence("Another different sentence", new float[] { -0.9f, -0.8f, -0.7f }));
 
 		// Group similar sentences
 		List<List<String>> groups = groupingService.group(sentences);
@@ -62,7 +74,7 @@ public class GroupingServiceTest {
 	public void testSingleSentence() {
 		// Test with a single sentence
 		List<Sentence> singleSentence = new ArrayList<>();
-		singleSentence.add(new Sentence("Single sentence", new double[] { 0.1, 0.2, 0.3 }));
+		singleSentence.add(new Sentence("Single sentence", new float[] { 0.1f, 0.2f, 0.3f }));
 
 		List<List<String>> groups = groupingService.group(singleSentence);
 
@@ -73,6 +85,210 @@ public class GroupingServiceTest {
 		// So we just check that the implementation doesn't crash
 	}
 
+	@Test
+	public void testDuplicatesAreReportedPerOccurrence() {
+		List<Sentence> sentences = new ArrayList<>();
+		sentences.add(new Sentence("Repeated warning.", createEmbedding(1.0f, 0.0f, 0.0f), List.of("1", "4")));
+		sentences.add(new Sentence("Unique text.", createEmbedding(0.0f, 1.0f, 0.0f), List.of("2")));
+		sentences.add(new Sentence("Repeated, warning.", createEmbedding(0.99f, 0.1f, 0.0f), List.of("3")));
+		sentences.add(new Sentence("Boilerplate.", createEmbedding(0.0f, 0.0f, 1.0f), List.of("5", "6")));
+
+		List<List<String>> groups = groupingService.group(sentences, 0.9);
+
+		assertEquals(2, groups.size());
+		assertEquals(List.of("Repeated warning.", "Repeated warning.", "Repeated, warning."), groups.get(0));
+		assertEquals(List.of("Boilerplate.", "Boilerplate."), groups.get(1),
+				"A text occurring twice should form a group on its own");
+	}
+
+	@Test
+	public void testBlockedStrategyMatchesScalar() {
+		// Clusters of noisy copies of random centers, spread over several row blocks and column tiles
+		List<Sentence> sentences = TestUtils.clusteredVectors(7, 700, 384, 40, 1.0);
+
+		for (double threshold : new double[] { 0.5, 0.75, 0.9 }) {
+			List<List<String>> scalar = groupingService.group(sentences, threshold, GroupingService.Strategy.SCALAR);
+			List<List<String>> blocked = groupingService.group(sentences, threshold, GroupingService.Strategy.BLOCKED);
+			assertFalse(scalar.isEmpty());
+			assertEquals(scalar, blocked, "Blocked grouping should match scalar grouping at threshold " + threshold);
+		}
+	}
+
+	@Test
+	public void testRegroupingFromNeighbourGraphMatchesScalar() {
+		List<Sentence> sentences = TestUtils.clusteredVectors(13, 600, 96, 30, 1.2);
+
+		NeighbourGraph graph = groupingService.buildNeighbourGraph(sentences, 0.8);
+		assertNotNull(graph);
+		assertEquals(0.5, graph.getFloor(), "The configured floor is below the threshold");
+		for (double threshold : new double[] { 0.5, 0.65, 0.8, 0.95 }) {
+			assertEquals(groupingService.group(sentences, threshold, GroupingService.Strategy.SCALAR),
+					groupingService.group(sentences, graph, threshold),
+					"Regrouping at " + threshold + " should match a fresh exact grouping");
+		}
+		assertThrows(IllegalArgumentException.class, () -> groupingService.group(sentences, graph, 0.4));
+	}
+
+	@Test
+	public void testHierarchyCutsMatchConnectedComponents() {
+		List<Sentence> sentences = TestUtils.clusteredVectors(17, 400, 64, 25, 1.2);
+		NeighbourGraph graph = groupingService.buildNeighbourGraph(sentences, 0.5);
+		GroupHierarchy hierarchy = groupingService.hierarchy(sentences, graph);
+
+		assertTrue(hierarchy.getScores().length < sentences.size());
+		for (int m = 1; m < hierarchy.getScores().length; m++) {
+			assertTrue(hierarchy.getScores()[m - 1] >= hierarchy.getScores()[m], "Merges should be most similar first");
+		}
+		for (double threshold : new double[] { 0.5, 0.7, 0.9 }) {
+			// Components of all pairs above the threshold, by repeated relabelling
+			int[] expected = new int[sentences.size()];
+			for (int i = 0; i < expected.length; i++) {
+				expected[i] = i;
+			}
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				for (int i = 0; i < expected.length; i++) {
+					for (int p = graph.rowStart(i); p < graph.rowEnd(i); p++) {
+						int j = graph.column(p);
+						if (graph.score(p) >= threshold && expected[i] != expected[j]) {
+							int label = Math.min(expected[i], expected[j]);
+							expected[i] = label;
+							expected[j] = label;
+							changed = true;
+						}
+					}
+				}
+			}
+			// Components of the merges above the threshold
+			int[] cut = new int[sentences.size()];
+			for (int i = 0; i < cut.length; i++) {
+				cut[i] = i;
+			}
+			changed = true;
+			while (changed) {
+				changed = false;
+				for (int m = 0; m < hierarchy.getScores().length && hierarchy.getScores()[m] >= threshold; m++) {
+					int a = hierarchy.getFrom()[m];
+					int b = hierarchy.getTo()[m];
+					if (cut[a] != cut[b]) {
+						int label = Math.min(cut[a], cut[b]);
+						cut[a] = label;
+						cut[b] = label;
+						changed = true;
+					}
+				}
+			}
+			assertArrayEquals(expected, cut, "Cutting the hierarchy at " + threshold + " should give the connected components");
+		}
+	}
+
+	@Test
+	public void testParallelGroupingMatchesSequential() {
+		Random random = new Random(11);
+		for (int round = 0; round < 5; round++) {
+			// Random cluster counts and sizes, so blocks and tiles end at different rows each round
+			int size = 300 + random.nextInt(900);
+			List<Sentence> sentences = TestUtils.clusteredVectors(random.nextLong(), size, 64, 1 + random.nextInt(60), 1.5);
+			double threshold = 0.5 + random.nextDouble() * 0.4;
+
+			List<List<String>> sequential = groupingService.group(sentences, threshold, GroupingService.Strategy.SCALAR);
+			for (int threads : new int[] { 2, 3, 8 }) {
+				ForkJoinPool pool = new ForkJoinPool(threads);
+				try {
+					List<List<String>> parallel = groupingService.group(sentences, threshold,
+							GroupingService.Strategy.BLOCKED, pool);
+					assertEquals(sequential, parallel, "Parallel grouping with " + threads + " threads should match");
+				} finally {
+					pool.shutdown();
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testFloatGroupingMatchesDoubleReferenceOnSamples() throws Exception {
+		double threshold = 0.75;
+		int groupsFound = 0;
+
+		for (String sample : List.of("samples/sample_s.dita", "samples/sample_m.dita", "samples/sample_l.dita")) {
+			Document document = buildDocument(Files.readString(Path.of(sample)));
+			List<String> texts = xmlProcessorService.extractTextElements(document, "title p");
+
+			// Deterministic bag-of-words vectors, so shared wording gives high similarity
+			List<Sentence> sentences = new ArrayList<>();
+			List<double[]> referenceVectors = new ArrayList<>();
+			for (String text : texts) {
+				double[] vector = bagOfWordsEmbedding(text);
+				float[] floatVector = new float[vector.length];
+				for (int i = 0; i < vector.length; i++) {
+					floatVector[i] = (float) vector[i];
+				}
+				referenceVectors.add(vector);
+				sentences.add(new Sentence(text, floatVector));
+			}
+
+			List<List<String>> expected = referenceGroup(texts, referenceVectors, threshold);
+			List<List<String>> groups = groupingService.group(sentences, threshold);
+
+			assertEquals(expected, groups, "Float32 grouping should match the double reference for " + sample);
+			groupsFound += groups.size();
+		}
+		assertTrue(groupsFound > 0, "The samples should contain similar texts");
+	}
+
+	/**
+	 * Sum of a fixed random vector per lowercased word.
+	 */
+	static double[] bagOfWordsEmbedding(String text) {
+		double[] vector = new double[384];
+		for (String word : text.toLowerCase().split("\\W+")) {
+			if (word.isEmpty()) {
+				continue;
+			}
+			Random random = new Random(word.hashCode());
+			for (int i = 0; i < vector.length; i++) {
+				vector[i] += random.nextGaussian();
+			}
+		}
+		return vector;
+	}
+
+	/**
+	 * The greedy grouping algorithm in double precision, as it was before float32 vectors.
+	 */
+	private List<List<String>> referenceGroup(List<String> texts, List<double[]> vectors, double threshold) {
+		List<List<String>> groups = new ArrayList<>();
+		boolean[] processed = new boolean[texts.size()];
+		for (int i = 0; i < texts.size(); i++) {
+			if (processed[i]) {
+				continue;
+			}
+			List<String> group = new ArrayList<>();
+			group.add(texts.get(i));
+			processed[i] = true;
+			for (int j = 0; j < texts.size(); j++) {
+				if (processed[j]) {
+					continue;
+				}
+				double dot = 0, magnitude1 = 0, magnitude2 = 0;
+				for (int k = 0; k < vectors.get(i).length; k++) {
+					dot += vectors.get(i)[k] * vectors.get(j)[k];
+					magnitude1 += vectors.get(i)[k] * vectors.get(i)[k];
+					magnitude2 += vectors.get(j)[k] * vectors.get(j)[k];
+				}
+				if (dot / (Math.sqrt(magnitude1) * Math.sqrt(magnitude2)) >= threshold) {
+					group.add(texts.get(j));
+					processed[j] = true;
+				}
+			}
+			if (group.size() > 1) {
+				groups.add(group);
+			}
+		}
+		return groups;
+	}
+
 	/**
 	 * Helper method to create test sentences with embeddings
 	 */
@@ -80,12 +296,12 @@ public class GroupingServiceTest {
 		List<Sentence> sentences = new ArrayList<>();
 
 		// Create similar sentences (with similar embeddings)
-		sentences.add(new Sentence("This is sentence one", new double[] { 0.1, 0.2, 0.3 }));
-		sentences.add(new Sentence("This is very similar to sentence one", new double[] { 0.11, 0.19, 0.31 }));
+		sentences.add(new Sentence("This is sentence one", new float[] { 0.1f, 0.2f, 0.3f }));
+		sentences.add(new Sentence("This is very similar to sentence one", new float[] { 0.11f, 0.19f, 0.31f }));
 
 		// Create different sentences (with different embeddings)
-		sentences.add(new Sentence("This is completely different", new double[] { 0.9, 0.8, 0.7 }));
-		sentences.add(new Sentence("Another different sentence", new double[] { 0.85, 0.75, 0.65 }));
+		sentences.add(new Sentence("This is completely different", new float[] { 0.9f, 0.8f, 0.7f }));
+		sentences.add(new Sentence("Another different sentence", new float[] { 0.85f, 0.75f, 0.65f }));
 
 		return sentences;
 	}
@@ -93,11 +309,7 @@ public class GroupingServiceTest {
 	/**
 	 * Helper method to create an embedding vector from float array
 	 */
-	private double[] createEmbedding(float[] values) {
-		double[] doubleValues = new double[values.length];
-		for (int i = 0; i < values.length; i++) {
-			doubleValues[i] = values[i];
-		}
-		return doubleValues;
+	private float[] createEmbedding(float... values) {
+		return values.clone();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+package org.acme.semsim.service;
+
+import org.acme.semsim.TestUtils;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HnswIndexTest {
+
+	private static final double THRESHOLD = 0.75;
+
+	private static SimilarityMatrix clusteredMatrix(int size, int clusters, int dimensions, long seed) {
+		return new SimilarityMatrix(TestUtils.clusteredVectors(seed, size, dimensions, clusters, 0.8));
+	}
+
+	@Test
+	public void testNeighboursAreAboveThresholdAndSorted() {
+		SimilarityMatrix matrix = clusteredMatrix(1500, 60, 48, 3);
+		HnswIndex index = new HnswIndex(matrix, 16, 100, 42);
+
+		for (int node = 0; node < matrix.size(); node += 37) {
+			int[] neighbours = index.neighboursAbove(node, THRESHOLD, 32);
+			for (int k = 0; k < neighbours.length; k++) {
+				assertNotEquals(node, neighbours[k], "A row should not be its own neighbour");
+				assertTrue(matrix.similarity(node, neighbours[k]) >= THRESHOLD, "Neighbours must be above the threshold");
+				assertTrue(k == 0 || neighbours[k - 1] < neighbours[k], "Neighbours should be ascending");
+			}
+		}
+	}
+
+	@Test
+	public void testRecallAgainstExactSearch() {
+		SimilarityMatrix matrix = clusteredMatrix(3000, 100, 48, 5);
+		HnswIndex index = new HnswIndex(matrix, 16, 100, 42);
+
+		double recall = index.estimateRecall(THRESHOLD, 64, 200);
+		assertTrue(recall > 0.95, "Recall should be high on clustered data but was " + recall);
+	}
+
+	@Test
+	public void testSameSeedBuildsSameIndex() {
+		SimilarityMatrix matrix = clusteredMatrix(800, 30, 32, 9);
+		HnswIndex first = new HnswIndex(matrix, 8, 50, 1);
+		HnswIndex second = new HnswIndex(matrix, 8, 50, 1);
+
+		for (int node = 0; node < matrix.size(); node += 13) {
+			assertArrayEquals(first.neighboursAbove(node, THRESHOLD, 16), second.neighboursAbove(node, THRESHOLD, 16));
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package org.acme.semsim.service;
+
+import ai.onnxruntime.OrtSession;
+import org.acme.semsim.model.Sentence;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.acme.semsim.service.XmlProcessorService.buildDocument;
+
+// NOTE: Needs the real model files, including the quantized variant, therefore only to be run manually:
+//   ./mvnw test -Dtest=ModelVariantAgreementTestManual -Dvariants=fp32,int8 -Dthreshold=0.75
+// "Manual" in the name prevents Maven from running it with `./mvnw test`.
+public class ModelVariantAgreementTestManual {
+
+	private static final Logger LOG = Logger.getLogger(ModelVariantAgreementTestManual.class);
+
+	private static final List<String> SAMPLES = List.of(
+			"samples/sample_s.dita", "samples/sample_m.dita", "samples/sample_l.dita");
+
+	@Test
+	public void compareGroupingAcrossVariants() throws Exception {
+		String[] variants = System.getProperty("variants", "fp32,int8").split(",");
+		double threshold = Double.parseDouble(System.getProperty("threshold", "0.75"));
+		String elements = System.getProperty("elements", "title p");
+
+		GroupingService groupingService = new GroupingService();
+		XmlProcessorService xmlProcessorService = new XmlProcessorService();
+
+		EmbeddingService reference = createEmbeddingService(variants[0]);
+		try {
+			for (int v = 1; v < variants.length; v++) {
+				EmbeddingService candidate = createEmbeddingService(variants[v]);
+				try {
+					for (String sample : SAMPLES) {
+						Document document = buildDocument(Files.readString(Path.of(sample)));
+						List<String> texts = xmlProcessorService.extractTextElements(document, elements);
+
+						long start = System.nanoTime();
+						List<Sentence> referenceSentences = reference.generateEmbeddings(texts);
+						long referenceNanos = System.nanoTime() - start;
+						start = System.nanoTime();
+						List<Sentence> candidateSentences = candidate.generateEmbeddings(texts);
+						long candidateNanos = System.nanoTime() - start;
+
+						double cosine = 0;
+						for (int i = 0; i < texts.size(); i++) {
+							cosine += VectorMath.cosine(referenceSentences.get(i).getVector(),
+									candidateSentences.get(i).getVector());
+						}
+
+						List<List<String>> referenceGroups = groupingService.group(referenceSentences, threshold);
+						List<List<String>> candidateGroups = groupingService.group(candidateSentences, threshold);
+
+						LOG.info(String.format("%s: %d texts, %s vs %s: rand index %.4f, mean cosine %.4f, " +
+										"groups %d vs %d, %.1f vs %.1f texts/s",
+								sample, texts.size(), variants[0], variants[v],
+								randIndex(texts, referenceGroups, candidateGroups), cosine / texts.size(),
+								referenceGroups.size(), candidateGroups.size(),
+								texts.size() * 1e9 / referenceNanos, texts.size() * 1e9 / candidateNanos));
+					}
+				} finally {
+					candidate.close();
+				}
+			}
+		} finally {
+			reference.close();
+		}
+	}
+
+	/**
+	 * Fraction of text pairs on which both groupings agree, i.e. both put the pair in the same
+	 * group or both keep it apart. Ungrouped texts count as singletons.
+	 */
+	static double randIndex(List<String> texts, List<List<String>> groupsA, List<List<String>> groupsB) {
+		int[] labelsA = labels(texts, groupsA);
+		int[] labelsB = labels(texts, groupsB);
+		long agreements = 0;
+		long pairs = 0;
+		for (int i = 0; i < texts.size(); i++) {
+			for (int j = i + 1; j < texts.size(); j++) {
+				boolean togetherA = labelsA[i] == labelsA[j];
+				boolean togetherB = labelsB[i] == labelsB[j];
+				if (togetherA == togetherB) {
+					agreements++;
+				}
+				pairs++;
+			}
+		}
+		return pairs == 0 ? 1.0 : (double) agreements / pairs;
+	}
+
+	private static int[] labels(List<String> texts, List<List<String>> groups) {
+		Map<String, Integer> groupOfText = new HashMap<>();
+		for (int g = 0; g < groups.size(); g++) {
+			for (String text : groups.get(g)) {
+				groupOfText.put(text, g);
+			}
+		}
+		int[] labels = new int[texts.size()];
+		for (int i = 0; i < labels.length; i++) {
+			// Singletons get a label of their own past the group ids
+			labels[i] = groupOfText.getOrDefault(texts.get(i), groups.size() + i);
+		}
+		return labels;
+	}
+
+	private static EmbeddingService createEmbeddingService(String variant) {
+		EmbeddingService service = new EmbeddingService();
+		service.batchSize = 32;
+		service.maxBatchTokens = 8192;
+		service.windowSize = 256;
+		service.windowStride = 192;
+		service.chunkingEnabled = true;
+		service.modelId = "all-MiniLM-L6-v2";
+		service.modelPath = Optional.ofNullable(System.getProperty("modelPath"));
+		service.modelVariant = variant;
+		service.optimizedModelPath = Optional.empty();
+		service.cacheEnabled = false;
+		service.storeEnabled = false;
+		service.inferenceSessions = 1;
+		service.executionMode = OrtSession.SessionOptions.ExecutionMode.SEQUENTIAL;
+		service.optimizationLevel = OrtSession.SessionOptions.OptLevel.ALL_OPT;
+		service.initialize();
+		return service;
+	}
+}
@@ -0,0 +1,65 @@
+package org.acme.semsim.service;
+
+import org.acme.semsim.TestUtils;
+import org.acme.semsim.model.Sentence;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RandomProjectionLshTest {
+
+	private static final double THRESHOLD = 0.75;
+
+	private static SimilarityMatrix clusteredMatrix(int size, int clusters, int dimensions, long seed) {
+		return new SimilarityMatrix(TestUtils.clusteredVectors(seed, size, dimensions, clusters, 0.8));
+	}
+
+	@Test
+	public void testNeighboursAreLaterAboveThresholdAndSorted() {
+		SimilarityMatrix matrix = clusteredMatrix(1500, 60, 96, 3);
+		RandomProjectionLsh lsh = new RandomProjectionLsh(matrix, 16, 8, 42);
+		boolean[] skipRows = new boolean[matrix.size()];
+		for (int i = 0; i < skipRows.length; i += 3) {
+			skipRows[i] = true;
+		}
+
+		for (RandomProjectionLsh.Candidates candidates : RandomProjectionLsh.Candidates.values()) {
+			for (int row = 0; row < matrix.size(); row += 29) {
+				int[] neighbours = lsh.laterNeighboursAbove(row, THRESHOLD, candidates, skipRows);
+				for (int k = 0; k < neighbours.length; k++) {
+					assertTrue(neighbours[k] > row, "Only later rows should be reported");
+					assertFalse(skipRows[neighbours[k]], "Skipped rows should not be reported");
+					assertTrue(matrix.similarity(row, neighbours[k]) >= THRESHOLD, "Neighbours must be above the threshold");
+					assertTrue(k == 0 || neighbours[k - 1] < neighbours[k], "Neighbours should be ascending");
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRecallAgainstExactSearch() {
+		SimilarityMatrix matrix = clusteredMatrix(3000, 100, 96, 5);
+		RandomProjectionLsh lsh = new RandomProjectionLsh(matrix, 16, 8, 42);
+
+		double hammingRecall = lsh.estimateRecall(THRESHOLD, RandomProjectionLsh.Candidates.HAMMING, 300);
+		assertTrue(hammingRecall > 0.99, "Hamming recall should be near complete but was " + hammingRecall);
+		double bandRecall = lsh.estimateRecall(THRESHOLD, RandomProjectionLsh.Candidates.BANDS, 300);
+		assertTrue(bandRecall > 0.9, "Band recall should be high on clustered data but was " + bandRecall);
+	}
+
+	@Test
+	public void testHammingDistanceTracksSimilarity() {
+		List<Sentence> sentences = List.of(
+				new Sentence("a", new float[] { 1f, 0f, 0f }),
+				new Sentence("b", new float[] { 1f, 0f, 0f }),
+				new Sentence("c", new float[] { -1f, 0f, 0f }));
+		RandomProjectionLsh lsh = new RandomProjectionLsh(new SimilarityMatrix(sentences), 4, 16, 7);
+
+		assertEquals(0, lsh.hammingDistance(0, 1), "Equal vectors should have equal signatures");
+		assertEquals(lsh.bits(), lsh.hammingDistance(0, 2), "Opposite vectors should disagree on every bit");
+		assertTrue(lsh.maxHammingDistance(0.9) < lsh.maxHammingDistance(0.5));
+		assertEquals(lsh.bits(), lsh.maxHammingDistance(-1.0));
+	}
+}
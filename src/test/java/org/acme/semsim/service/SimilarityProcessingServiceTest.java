@@ -3,13 +3,18 @@ package org.acme.semsim.service;
 import io.quarkus.test.junit.QuarkusTest;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.core.NewCookie;
+import org.acme.semsim.model.Sentence;
 import org.acme.semsim.model.SessionData;
 import org.junit.jupiter.api.Test;
-import org.xml.sax.SAXException;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPathExpressionException;
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -37,7 +42,7 @@ public class SimilarityProcessingServiceTest {
             </document>""";
 
     @Test
-	public void testStartAsyncProcessing() throws XPathExpressionException, ParserConfigurationException, IOException, SAXException {
+	public void testStartAsyncProcessing() throws XMLStreamException, IOException {
 		// Test that processing starts and returns a session ID
 		NewCookie cookie = similarityProcessingService.startAsyncProcessing(XML_SAMPLE, "paragraph");
 
@@ -47,6 +52,38 @@ public class SimilarityProcessingServiceTest {
 		// Verify that a session was created
 		SessionData sessionData = sessionService.getSession(cookie.getValue());
 		assertNotNull(sessionData, "Session data should exist");
+		assertNotNull(sessionData.getSourceFile(), "The upload should be kept for export");
+		assertEquals(XML_SAMPLE, Files.readString(sessionData.getSourceFile()));
+
+		sessionService.removeSession(cookie.getValue());
+		assertFalse(Files.exists(sessionData.getSourceFile()), "Removing the session should delete its copy");
+	}
+
+	@Test
+	public void testWriteAnnotatedXml() throws Exception {
+		String xml = "<document><p>Check the oil.</p><p>Unique.</p><p>Check the oil!</p><p>Check the oil.</p></document>";
+		Path sourceFile = Files.createTempFile("semsim-test-", ".xml");
+		Files.writeString(sourceFile, xml);
+		SessionData sessionData = new SessionData("test");
+		sessionData.setSource(sourceFile, StandardCharsets.UTF_8, "p");
+		sessionData.addSentence(new Sentence("Check the oil.", new float[] {1, 0}, List.of("1", "4")));
+		sessionData.addSentence(new Sentence("Unique.", new float[] {0, 1}, List.of("2")));
+		sessionData.addSentence(new Sentence("Check the oil!", new float[] {0.8f, 0.6f}, List.of("3")));
+		sessionData.addSimilarityGroup(List.of("Check the oil.", "Check the oil.", "Check the oil!"));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		similarityProcessingService.writeAnnotatedXml(sessionData, out);
+		Files.delete(sourceFile);
+
+		NodeList paragraphs = XmlProcessorService.buildDocument(out.toString(StandardCharsets.UTF_8)).getElementsByTagName("p");
+		assertEquals(4, paragraphs.getLength());
+		Element third = (Element) paragraphs.item(2);
+		assertEquals("3", third.getAttribute("cms:semid"));
+		assertEquals("1", third.getAttribute("cms:group"));
+		assertEquals(0.8f, Float.parseFloat(third.getAttribute("cms:score")), 1e-6);
+		assertEquals("1.0", ((Element) paragraphs.item(3)).getAttribute("cms:score"));
+		assertFalse(((Element) paragraphs.item(1)).hasAttribute("cms:group"), "Unique texts have no group");
+		assertEquals("2", ((Element) paragraphs.item(1)).getAttribute("cms:semid"));
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package org.acme.semsim.service;
+
+import org.acme.semsim.model.Sentence;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TopKHeapsTest {
+
+	@Test
+	public void testKeepsHighestScoresInDescendingOrder() {
+		Random random = new Random(3);
+		float[] scores = new float[500];
+		TopKHeaps heaps = new TopKHeaps(2, 7);
+		for (int id = 0; id < scores.length; id++) {
+			scores[id] = random.nextFloat();
+			heaps.offer(1, id, scores[id]);
+		}
+		heaps.offer(0, 42, 0.5f);
+		heaps.sortDescending(0);
+		heaps.sortDescending(1);
+
+		List<Integer> expected = IntStream.range(0, scores.length).boxed()
+				.sorted(Comparator.comparing((Integer id) -> scores[id]).reversed()).limit(7).toList();
+		assertEquals(7, heaps.size(1));
+		for (int rank = 0; rank < 7; rank++) {
+			assertEquals(expected.get(rank), heaps.id(1, rank));
+			assertEquals(scores[expected.get(rank)], heaps.score(1, rank));
+		}
+		assertEquals(1, heaps.size(0), "Rows should not share entries");
+		assertEquals(42, heaps.id(0, 0));
+	}
+
+	@Test
+	public void testAllRowsMatchSingleRowSearch() {
+		Random random = new Random(5);
+		List<Sentence> sentences = new ArrayList<>();
+		// Spans several row blocks and column tiles, with a row count that is not a multiple of four
+		for (int i = 0; i < 603; i++) {
+			float[] vector = new float[32];
+			for (int k = 0; k < vector.length; k++) {
+				vector[k] = (float) random.nextGaussian();
+			}
+			sentences.add(new Sentence("text " + i, vector));
+		}
+		SimilarityMatrix matrix = new SimilarityMatrix(sentences);
+
+		TopKHeaps all = matrix.topNeighbours(5);
+		for (int row = 0; row < matrix.size(); row++) {
+			TopKHeaps single = matrix.topNeighbours(row, 5);
+			assertEquals(5, all.size(row));
+			for (int rank = 0; rank < 5; rank++) {
+				assertEquals(single.id(0, rank), all.id(row, rank), "Neighbour " + rank + " of row " + row);
+				assertEquals(single.score(0, rank), all.score(row, rank), 1e-5f);
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package org.acme.semsim.service;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WordPieceTokenizerTest {
+
+	private static WordPieceTokenizer tokenizer;
+
+	@BeforeAll
+	public static void loadTokenizer() throws Exception {
+		tokenizer = WordPieceTokenizer.fromTokenizerJson("/models/all-MiniLM-L6-v2-onnx/tokenizer.json");
+	}
+
+	private String[] tokens(String text) {
+		long[] ids = new long[512];
+		int count = tokenizer.tokenize(text, ids, ids.length);
+		String[] tokens = new String[count];
+		for (int i = 0; i < count; i++) {
+			tokens[i] = tokenizer.token((int) ids[i]);
+		}
+		return tokens;
+	}
+
+	@Test
+	public void testPunctuationIsSplitOff() {
+		assertArrayEquals(new String[] { "[CLS]", "hello", ",", "world", "!", "[SEP]" }, tokens("Hello, world!"));
+	}
+
+	@Test
+	public void testWordPieceSplitsUnknownWords() {
+		assertArrayEquals(new String[] { "[CLS]", "una", "##ffa", "##ble", "[SEP]" }, tokens("unaffable"));
+		assertArrayEquals(new String[] { "[CLS]", "tighten", "the", "wren", "##ch", "[SEP]" },
+				tokens("Tighten the wrench"));
+		assertArrayEquals(new String[] { "[CLS]", "ser", "##vo", "##moto", "##rs", "[SEP]" }, tokens("Servomotors"));
+	}
+
+	@Test
+	public void testAccentsAndChineseCharacters() {
+		assertArrayEquals(new String[] { "[CLS]", "cafe", "[SEP]" }, tokens("Café"));
+		assertArrayEquals(new String[] { "[CLS]", "中", "文", "[SEP]" }, tokens("中文"));
+	}
+
+	@Test
+	public void testUnknownAndOverlongWords() {
+		assertArrayEquals(new String[] { "[CLS]", "[UNK]", "[SEP]" }, tokens("☃"));
+		assertArrayEquals(new String[] { "[CLS]", "[UNK]", "[SEP]" }, tokens("a".repeat(101)));
+	}
+
+	@Test
+	public void testTruncationKeepsSeparator() {
+		long[] ids = new long[512];
+		int count = tokenizer.tokenize("word ".repeat(100), ids, 10);
+
+		assertEquals(10, count);
+		assertEquals(tokenizer.getClsId(), ids[0]);
+		assertEquals(tokenizer.getSepId(), ids[9]);
+	}
+
+	@Test
+	public void testVocabularyLookup() {
+		assertEquals(30522, tokenizer.vocabularySize());
+		assertEquals(0, tokenizer.getPadId());
+		assertEquals(100, tokenizer.getUnkId());
+		assertEquals(101, tokenizer.getClsId());
+		assertEquals(102, tokenizer.getSepId());
+		assertEquals(-1, tokenizer.tokenId("notavocabularytoken"));
+	}
+
+	@Test
+	public void testThroughput() {
+		String text = "Check the hydraulic actuator, servo motors and firmware version (v2.3) before every run. ";
+		long[] ids = new long[512];
+		int iterations = 20_000;
+
+		long tokenTotal = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			tokenTotal += tokenizer.tokenize(text, ids, ids.length);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		// Loose bound so the test stays stable on slow CI machines
+		double tokensPerSecond = tokenTotal / seconds;
+		assertTrue(tokensPerSecond > 200_000, "Tokenizer throughput was " + (long) tokensPerSecond + " tokens/s");
+		assertFalse(Arrays.stream(ids, 1, 20).anyMatch(id -> id == tokenizer.getUnkId()),
+				"Technical text should not produce [UNK] tokens");
+	}
+}
@@ -2,14 +2,26 @@ package org.acme.semsim.service;
 
 import io.quarkus.test.junit.QuarkusTest;
 import jakarta.inject.Inject;
+import org.acme.semsim.interfaces.LeanElementInterfaceWrapper;
+import org.acme.semsim.model.LeanElement;
+import org.acme.semsim.model.Sentence;
 import org.junit.jupiter.api.Test;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
 
+import javax.xml.stream.XMLStreamException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
 import static org.acme.semsim.service.XmlProcessorService.buildDocument;
 import static org.acme.semsim.service.XmlProcessorService.createWorkingCopy;
+import static org.acme.semsim.service.XmlProcessorService.getElementsOfDocument;
 import static org.junit.jupiter.api.Assertions.*;
 
 @QuarkusTest
@@ -224,4 +236,152 @@ public class XmlProcessorServiceTest {
 		assertEquals(4, workingCopy.getElementsByTagName("p").getLength() + workingCopy.getElementsByTagName("title").getLength(),
 				"Working copy should have 4 elements (3 paragraphs and 1 title)");
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testExtractUniqueTextsCollapsesDuplicates() throws Exception {
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+				"<document>\n" +
+				"\t<p>Press the  red button.</p>\n" +
+				"\t<p>Release the lever.</p>\n" +
+				"\t<p>Press the red\n button.</p>\n" +
+				"\t<p>   </p>\n" +
+				"\t<p>Press the red button.</p>\n" +
+				"</document>";
+
+		Document workingCopy = createWorkingCopy(xml, defaultElement);
+		List<Sentence> uniqueTexts = xmlProcessorService.extractUniqueTexts(workingCopy, defaultElement);
+
+		assertEquals(2, uniqueTexts.size(), "Texts identical after normalize-space should collapse");
+		assertEquals("Press the red button.", uniqueTexts.get(0).getText());
+		assertEquals(List.of("1", "3", "5"), uniqueTexts.get(0).getSemids());
+		assertEquals(3, uniqueTexts.get(0).getOccurrenceCount());
+		assertEquals(List.of("2"), uniqueTexts.get(1).getSemids());
+	}
+
+	@Test
+	public void testStreamingExtractionMatchesWorkingCopy() throws Exception {
+		// Nested selected elements, CDATA, comments and an empty element
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+				"<document>\n" +
+				"\t<title>Guide</title>\n" +
+				"\t<li>Check <p>the <![CDATA[oil]]> level</p><!-- note --> daily.</li>\n" +
+				"\t<p/>\n" +
+				"\t<li><p>Check the oil level</p></li>\n" +
+				"\t<p>Guide</p>\n" +
+				"</document>";
+		assertSameTexts(xml, "p li title");
+
+		List<Sentence> streamed = xmlProcessorService.extractUniqueTexts(xml, "p li title");
+		assertEquals("Check the oil level daily.", streamed.get(1).getText(), "Outer element includes inner text");
+		assertEquals(List.of("1", "7"), streamed.get(0).getSemids());
+		assertEquals(List.of("5", "6"), streamed.get(3).getSemids(), "Semid 4 is the empty element");
+
+		for (String sample : List.of("samples/sample_s.dita", "samples/sample_l.dita")) {
+			assertSameTexts(Files.readString(Path.of(sample)), "title p li shortdesc");
+		}
+	}
+
+	@Test
+	public void testDitaClassSelection() throws Exception {
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+				"<task class=\"- topic/topic task/task \">\n" +
+				"\t<title class=\"- topic/title \">Change the oil</title>\n" +
+				"\t<p class=\"- topic/p \">Park the robot.</p>\n" +
+				"\t<cmd class=\"- topic/ph task/cmd \">Open the drain.</cmd>\n" +
+				"\t<note class=\"- topic/note \">Oil may be hot.</note>\n" +
+				"</task>";
+
+		List<Sentence> streamed = xmlProcessorService.extractUniqueTexts(xml, "title topic/ph");
+		assertEquals(List.of("Change the oil", "Open the drain."), streamed.stream().map(Sentence::getText).toList());
+		assertSameTexts(xml, "title topic/ph");
+		assertSameTexts(xml, "topic/p topic/note");
+	}
+
+	@Test
+	public void testLeanElementsMatchWorkingCopyElements() throws Exception {
+		String xml = Files.readString(Path.of("samples/sample_l.dita"));
+		String elementNames = "title p li shortdesc";
+		List<LeanElement> leanElements = xmlProcessorService.extractElements(xml, elementNames);
+		List<Element> domElements = getElementsOfDocument(elementNames, createWorkingCopy(xml, elementNames));
+
+		assertEquals(domElements.size(), leanElements.size());
+		for (int i = 0; i < leanElements.size(); i++) {
+			LeanElement lean = leanElements.get(i);
+			LeanElementInterfaceWrapper dom = new LeanElementInterfaceWrapper(domElements.get(i));
+			assertEquals(dom.getSemid(), lean.getSemid());
+			assertEquals(dom.getTagName(), lean.getTagName());
+			assertEquals(dom.getXPath(), lean.getXPath());
+			assertEquals(dom.getTextContent(), lean.getTextContent());
+			assertEquals(dom.getAttribute("id"), lean.getAttribute("id"));
+			// The working copy has the added cms:semid attribute
+			assertEquals(dom.getAttributeCount() - 1, lean.getAttributeCount());
+		}
+	}
+
+	@Test
+	public void testAnnotatedCopyKeepsDocument() throws Exception {
+		String xml = Files.readString(Path.of("samples/sample_m.dita"));
+		String elementNames = "title p li";
+		int elementCount = xmlProcessorService.extractElements(xml, elementNames).size();
+
+		String annotated = writeAnnotatedCopy(xml, elementNames, new int[elementCount], new float[elementCount]);
+
+		// Same texts and semids as the DOM working copy, with the cms prefix declared
+		Document annotatedDocument = buildDocument(annotated);
+		assertEquals(XmlProcessorService.CMS_NAMESPACE, annotatedDocument.getDocumentElement().getAttribute("xmlns:cms"));
+		List<Sentence> expected = xmlProcessorService.extractUniqueTexts(createWorkingCopy(xml, elementNames), elementNames);
+		List<Sentence> exported = xmlProcessorService.extractUniqueTexts(annotatedDocument, elementNames);
+		assertEquals(expected.stream().map(Sentence::getText).toList(), exported.stream().map(Sentence::getText).toList());
+		assertEquals(expected.stream().map(Sentence::getSemids).toList(), exported.stream().map(Sentence::getSemids).toList());
+		assertTrue(annotated.contains("<!-- Medium DITA sample"), "Comments are kept");
+	}
+
+	@Test
+	public void testReExportReplacesAnnotations() throws Exception {
+		String xml = Files.readString(Path.of("samples/sample_m.dita"));
+		String elementNames = "title p li";
+		int elementCount = xmlProcessorService.extractElements(xml, elementNames).size();
+		int[] groupIds = new int[elementCount];
+		float[] scores = new float[elementCount];
+		groupIds[0] = 1;
+		scores[0] = 1.0f;
+
+		String annotated = writeAnnotatedCopy(xml, elementNames, groupIds, scores);
+		String reExported = writeAnnotatedCopy(annotated, elementNames, new int[elementCount], new float[elementCount]);
+
+		// The old group is dropped and each attribute is written once, a duplicate would not parse
+		Element first = (Element) buildDocument(reExported).getElementsByTagName("title").item(0);
+		assertEquals("1", first.getAttribute("cms:semid"));
+		assertFalse(first.hasAttribute("cms:group"));
+		assertEquals(writeAnnotatedCopy(xml, elementNames, new int[elementCount], new float[elementCount]), reExported);
+	}
+
+	@Test
+	public void testAnnotatedCopyRejectsOtherCmsNamespace() {
+		String xml = "<topic xmlns:cms=\"urn:example:other\"><p>Text</p></topic>";
+
+		XMLStreamException e = assertThrows(XMLStreamException.class,
+				() -> writeAnnotatedCopy(xml, "p", new int[1], new float[1]));
+		assertTrue(e.getMessage().contains("urn:example:other"), e.getMessage());
+	}
+
+	private String writeAnnotatedCopy(String xml, String elementNames, int[] groupIds, float[] scores)
+			throws XMLStreamException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		xmlProcessorService.writeAnnotatedCopy(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), null,
+				elementNames, groupIds, scores, out);
+		return out.toString(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testStreamingExtractionRejectsInvalidXml() {
+		assertThrows(Exception.class, () -> xmlProcessorService.extractUniqueTexts("<invalid>xml", defaultElement));
+	}
+
+	private void assertSameTexts(String xml, String elementNames) throws Exception {
+		List<Sentence> expected = xmlProcessorService.extractUniqueTexts(createWorkingCopy(xml, elementNames), elementNames);
+		List<Sentence> streamed = xmlProcessorService.extractUniqueTexts(xml, elementNames);
+		assertEquals(expected.stream().map(Sentence::getText).toList(), streamed.stream().map(Sentence::getText).toList());
+		assertEquals(expected.stream().map(Sentence::getSemids).toList(), streamed.stream().map(Sentence::getSemids).toList());
+	}
+}